@@ -0,0 +1,61 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+
+/**
+ * Builds synthetic {@link Cluster} metadata for benchmarking.
+ * Replicas are assigned round robin across the brokers and a fraction of the partitions
+ * get their last follower removed from the ISR to simulate out of sync replicas.
+ */
+public final class ClusterGenerator {
+    public static final String TOPIC = "bench";
+    public static final String PROXY_TOPIC = "bench_proxy";
+    public static final int REPLICATION_FACTOR = 3;
+
+    private ClusterGenerator() {}
+
+    /**
+     * @param brokers Number of brokers in the cluster
+     * @param partitions Number of partitions for both the topic and the proxy topic
+     * @param outOfSyncRatio Fraction, between 0 and 1, of the partitions that will have an out of sync replica
+     * @param seed Seed used to pick which partitions are out of sync
+     * @return Cluster containing {@link #TOPIC} and {@link #PROXY_TOPIC}
+     */
+    public static Cluster generate(int brokers, int partitions, double outOfSyncRatio, long seed) {
+        final Node[] nodes = nodes(brokers);
+        final Random random = new Random(seed);
+        final List<PartitionInfo> infos = new ArrayList<>(partitions * 2);
+        for (String topic : Arrays.asList(TOPIC, PROXY_TOPIC)) {
+            for (int p = 0; p < partitions; p++) {
+                infos.add(partition(topic, p, nodes, random.nextDouble() < outOfSyncRatio));
+            }
+        }
+        return new Cluster("bench", Arrays.asList(nodes), infos, Collections.emptySet(), Collections.emptySet());
+    }
+
+    static Node[] nodes(int brokers) {
+        final Node[] nodes = new Node[brokers];
+        for (int b = 0; b < brokers; b++) {
+            nodes[b] = new Node(b, "broker-" + b, 9092);
+        }
+        return nodes;
+    }
+
+    static PartitionInfo partition(String topic, int partition, Node[] nodes, boolean outOfSync) {
+        final int rf = Math.min(REPLICATION_FACTOR, nodes.length);
+        final Node[] replicas = new Node[rf];
+        for (int r = 0; r < rf; r++) {
+            replicas[r] = nodes[(partition + r) % nodes.length];
+        }
+        final Node[] isr = outOfSync && rf > 1 ? Arrays.copyOf(replicas, rf - 1) : replicas;
+        return new PartitionInfo(topic, partition, replicas[0], replicas, isr);
+    }
+}
@@ -0,0 +1,147 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.HealthTransitionEvent;
+import org.apache.kafka.clients.producer.oos.HealthTransitionListener;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+/**
+ * Simulates a broker flapping in and out of the ISR on every other metadata snapshot or so, 
+ * and compares how the redirect partitioner reacts with and without readmission damping.
+ * 
+ * Records are fed through {@link Partitioner#partition} and batches roll over every {@value #BATCH_RECORDS} records, 
+ * as the producer's accumulator would for full batches. Reports how often the excluded set changed 
+ * and how many records were sent to the flapping broker, in total and while it was lagging.
+ * 
+ * Run with {@code java -cp benchmarks.jar org.apache.kafka.clients.producer.oos.benchmarks.FlapStormSimulation}
+ */
+public class FlapStormSimulation {
+    static final int BROKERS = 6;
+    static final int PARTITIONS = 60;
+    static final int FLAPPING_BROKER = 0;
+    static final int SNAPSHOTS = 1000;
+    static final int RECORDS_PER_SNAPSHOT = 10000;
+    static final int BATCH_RECORDS = 100;
+    static final double FLAP_PROBABILITY = 0.5;
+
+    public static void main(String[] args) {
+        final List<Cluster> timeline = timeline(new Random(42L));
+
+        System.out.println(String.format("%-24s %12s %12s %18s %20s %16s", 
+            "Readmission", "Switches", "AvgBatch", "HealthTransitions", "ToFlappingBroker", "ToLaggingBroker"));
+        for (int minSnapshots : new int[]{1, 2, 3, 5}) {
+            final Result r = run(timeline, minSnapshots);
+            System.out.println(String.format("%-24s %12d %12.1f %18d %20d %16d", 
+                "min.insync.snapshots=" + minSnapshots, r.switches, r.records / (double) Math.max(1, r.switches), 
+                r.transitions, r.toFlappingBroker, r.toLaggingBroker));
+        }
+    }
+
+    static List<Cluster> timeline(Random random) {
+        final Node[] nodes = ClusterGenerator.nodes(BROKERS);
+        final List<Cluster> timeline = new ArrayList<>(SNAPSHOTS);
+        for (int s = 0; s < SNAPSHOTS; s++) {
+            final boolean lagging = random.nextDouble() < FLAP_PROBABILITY;
+            final List<PartitionInfo> partitions = new ArrayList<>(PARTITIONS);
+            for (int p = 0; p < PARTITIONS; p++) {
+                final PartitionInfo info = ClusterGenerator.partition(ClusterGenerator.TOPIC, p, nodes, false);
+                final boolean hostsFlapping = Arrays.stream(info.replicas()).anyMatch(n -> n.id() == FLAPPING_BROKER);
+                if (lagging && hostsFlapping && info.leader().id() != FLAPPING_BROKER) {
+                    final Node[] isr = Arrays.stream(info.replicas()).filter(n -> n.id() != FLAPPING_BROKER).toArray(Node[]::new);
+                    partitions.add(new PartitionInfo(info.topic(), p, info.leader(), info.replicas(), isr));
+                } else {
+                    partitions.add(info);
+                }
+            }
+            timeline.add(new Cluster("flap", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet()));
+        }
+        return timeline;
+    }
+
+    static boolean isLagging(Cluster cluster) {
+        for (PartitionInfo p : cluster.partitionsForTopic(ClusterGenerator.TOPIC)) {
+            if (p.inSyncReplicas().length < p.replicas().length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Result run(List<Cluster> timeline, int minSnapshots) {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.METRICS_ENABLED_CONFIG, false);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_LISTENERS_CONFIG, TransitionCounter.class.getName());
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.READMIT_MIN_INSYNC_SNAPSHOTS_CONFIG, minSnapshots);
+
+        final Partitioner p = new OutOfSyncRedirectPartitioner();
+        p.configure(configs);
+
+        final Result r = new Result();
+        TransitionCounter.TRANSITIONS.set(0);
+        for (Cluster cluster : timeline) {
+            final boolean lagging = isLagging(cluster);
+            int batch = 0;
+            int current = p.partition(ClusterGenerator.TOPIC, null, null, null, null, cluster);
+            for (int i = 0; i < RECORDS_PER_SNAPSHOT; i++) {
+                if (batch == BATCH_RECORDS) {
+                    p.onNewBatch(ClusterGenerator.TOPIC, cluster, current);
+                    final int next = p.partition(ClusterGenerator.TOPIC, null, null, null, null, cluster);
+                    if (next != current) {
+                        r.switches++;
+                    }
+                    current = next;
+                    batch = 0;
+                }
+                batch++;
+                r.records++;
+                if (cluster.leaderFor(new TopicPartition(ClusterGenerator.TOPIC, current)).id() == FLAPPING_BROKER) {
+                    r.toFlappingBroker++;
+                    if (lagging) {
+                        r.toLaggingBroker++;
+                    }
+                }
+            }
+        }
+        p.close();
+        r.transitions = TransitionCounter.TRANSITIONS.get();
+        return r;
+    }
+
+    /**
+     * Counts the times the excluded set changed between snapshots.
+     */
+    public static class TransitionCounter implements HealthTransitionListener {
+        static final AtomicLong TRANSITIONS = new AtomicLong();
+
+        @Override
+        public void onHealthTransition(HealthTransitionEvent event) {
+            TRANSITIONS.incrementAndGet();
+        }
+    }
+
+    static final class Result {
+        long records;
+        long switches;
+        long transitions;
+        long toFlappingBroker;
+        long toLaggingBroker;
+    }
+}
@@ -0,0 +1,84 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.DescribeClusterResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartitionInfo;
+
+/**
+ * Records a {@link MetadataTimeline} for {@link MetadataReplaySimulation} to replay offline.
+ * 
+ * <pre>
+ * # Poll a live cluster's metadata, optionally limited to some topics
+ * MetadataDumper record &lt;bootstrap.servers&gt; &lt;file&gt; [interval-ms] [snapshots] [topic,...]
+ * # Write the synthetic timeline of {@link FlapStormSimulation}
+ * MetadataDumper flap &lt;file&gt;
+ * </pre>
+ */
+public class MetadataDumper {
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && "record".equals(args[0])) {
+            final long intervalMs = args.length > 3 ? Long.parseLong(args[3]) : 10000L;
+            final int snapshots = args.length > 4 ? Integer.parseInt(args[4]) : 360;
+            final Set<String> topics = args.length > 5 ? new HashSet<>(Arrays.asList(args[5].split(","))) : Collections.emptySet();
+            record(args[1], new File(args[2]), intervalMs, snapshots, topics);
+        } else if (args.length == 2 && "flap".equals(args[0])) {
+            final List<Cluster> timeline = FlapStormSimulation.timeline(new Random(42L));
+            MetadataTimeline.write(new File(args[1]), timeline);
+            System.out.println("Wrote " + timeline.size() + " snapshots to " + args[1]);
+        } else {
+            System.err.println("Usage: MetadataDumper record <bootstrap.servers> <file> [interval-ms] [snapshots] [topic,...]");
+            System.err.println("       MetadataDumper flap <file>");
+            System.exit(1);
+        }
+    }
+
+    static void record(String bootstrapServers, File file, long intervalMs, int snapshots, Set<String> topics) throws Exception {
+        final Properties props = new Properties();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(AdminClientConfig.CLIENT_ID_CONFIG, "oos-metadata-dumper");
+        try (Admin admin = Admin.create(props); MetadataTimeline.Writer writer = new MetadataTimeline.Writer(file)) {
+            for (int s = 0; s < snapshots; s++) {
+                final long start = System.currentTimeMillis();
+                writer.write(snapshot(admin, topics));
+                System.out.println("Recorded snapshot " + writer.snapshots() + "/" + snapshots);
+                Thread.sleep(Math.max(0, intervalMs - (System.currentTimeMillis() - start)));
+            }
+        }
+    }
+
+    /**
+     * Describes the cluster and topics, as a producer's metadata request would
+     */
+    static Cluster snapshot(Admin admin, Set<String> topics) throws Exception {
+        final DescribeClusterResult cluster = admin.describeCluster();
+        final Collection<Node> nodes = cluster.nodes().get();
+        final Set<String> names = topics.isEmpty() ? admin.listTopics().names().get() : topics;
+        final Map<String, TopicDescription> descriptions = admin.describeTopics(names).all().get();
+
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (TopicDescription description : descriptions.values()) {
+            for (TopicPartitionInfo p : description.partitions()) {
+                partitions.add(new PartitionInfo(description.name(), p.partition(), p.leader(), 
+                    p.replicas().toArray(new Node[0]), p.isr().toArray(new Node[0])));
+            }
+        }
+        return new Cluster(cluster.clusterId().get(), nodes, partitions, Collections.emptySet(), Collections.emptySet());
+    }
+}
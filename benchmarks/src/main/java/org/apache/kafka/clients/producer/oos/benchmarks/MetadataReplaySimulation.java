@@ -0,0 +1,261 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectPartitioner;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectStickyPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+/**
+ * Replays a recorded {@link MetadataTimeline} against {@link OutOfSyncRedirectPartitioner}, {@link OutOfSyncProxyRedirectPartitioner}
+ * and {@link DefaultPartitioner}, entirely offline, to judge tuning before it reaches production.
+ * 
+ * For every snapshot a synthetic stream of records without keys is fed through {@link Partitioner#partition}, round robin over the topics, 
+ * and each topic's batch rolls over every `sim.batch.records` records as the producer's accumulator would for full batches. 
+ * Reports per Broker load, records sent to Brokers with out of sync replicas, partition switches, 
+ * batch rolls made while no partition was eligible, i.e. on the partitioners' random fallback, and CPU time per record.
+ * 
+ * <pre>
+ * MetadataReplaySimulation &lt;timeline-file&gt; [key=value ...]
+ * </pre>
+ * Configs prefixed with `sim.` configure the simulation, see the constants. All others are passed to the redirect partitioners, 
+ * e.g. {@code partitioner.readmit.min.insync.snapshots=3}.
+ */
+public class MetadataReplaySimulation {
+    public static final String RECORDS_PER_SNAPSHOT = "sim.records.per.snapshot";
+    public static final String BATCH_RECORDS = "sim.batch.records";
+    /** Comma separated topics to produce to, defaults to every topic not starting with `__` in the first snapshot */
+    public static final String TOPICS = "sim.topics";
+    /** Proxy topic of {@link OutOfSyncProxyRedirectPartitioner}, defaults to the first topic produced to */
+    public static final String PROXY_TOPIC = "sim.proxy.topic";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: MetadataReplaySimulation <timeline-file> [key=value ...]");
+            System.exit(1);
+        }
+        final List<Cluster> timeline = MetadataTimeline.read(new File(args[0]));
+        if (timeline.isEmpty()) {
+            System.err.println("No snapshots in " + args[0]);
+            System.exit(1);
+        }
+
+        final Map<String, String> sim = new HashMap<>();
+        final Map<String, Object> configs = new HashMap<>();
+        for (String arg : Arrays.asList(args).subList(1, args.length)) {
+            final String[] kv = arg.split("=", 2);
+            final String value = kv.length > 1 ? kv[1] : "";
+            if (kv[0].startsWith("sim.")) {
+                sim.put(kv[0], value);
+            } else {
+                configs.put(kv[0], value);
+            }
+        }
+        final int records = Integer.parseInt(sim.getOrDefault(RECORDS_PER_SNAPSHOT, "10000"));
+        final int batchRecords = Integer.parseInt(sim.getOrDefault(BATCH_RECORDS, "100"));
+        final List<String> topics = sim.containsKey(TOPICS) ? Arrays.asList(sim.get(TOPICS).split(",")) : topics(timeline.get(0));
+        final String proxyTopic = sim.getOrDefault(PROXY_TOPIC, topics.get(0));
+
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.putIfAbsent(AbstractOutOfSyncRedirectPartitionCache.Config.METRICS_ENABLED_CONFIG, false);
+        configs.putIfAbsent(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, proxyTopic);
+
+        final Map<String, Supplier<Partitioner>> partitioners = new LinkedHashMap<>();
+        partitioners.put("redirect", OutOfSyncRedirectPartitioner::new);
+        partitioners.put("proxy", OutOfSyncProxyRedirectPartitioner::new);
+        partitioners.put("default", DefaultPartitioner::new);
+
+        System.out.println(String.format("Replaying %d snapshots, %d records each over %d topics, proxy topic `%s`", 
+            timeline.size(), records, topics.size(), proxyTopic));
+        final Simulation simulation = new Simulation(timeline, topics, Collections.singletonList(proxyTopic), records, batchRecords);
+        final Map<String, Result> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<Partitioner>> p : partitioners.entrySet()) {
+            // Warm up the JIT on a throw away instance before measuring
+            simulation.run(p.getValue().get(), configs, p.getKey(), Math.max(1, timeline.size() / 10));
+            results.put(p.getKey(), simulation.run(p.getValue().get(), configs, p.getKey(), timeline.size()));
+        }
+        report(results);
+    }
+
+    static List<String> topics(Cluster cluster) {
+        final List<String> topics = new ArrayList<>();
+        for (String topic : cluster.topics()) {
+            if (!topic.startsWith("__")) {
+                topics.add(topic);
+            }
+        }
+        Collections.sort(topics);
+        return topics;
+    }
+
+    /**
+     * Brokers with a replica out of the ISR of any partition of the topics, the same as the partitioners' default health source
+     */
+    static BitSet lagging(Cluster cluster, Collection<String> topics) {
+        final BitSet lagging = new BitSet();
+        for (String topic : topics) {
+            for (PartitionInfo p : cluster.partitionsForTopic(topic)) {
+                for (Node replica : p.replicas()) {
+                    if (!Arrays.asList(p.inSyncReplicas()).contains(replica)) {
+                        lagging.set(replica.id());
+                    }
+                }
+            }
+        }
+        return lagging;
+    }
+
+    static final class Simulation {
+        private final List<Cluster> timeline;
+        private final String[] topics;
+        private final List<String> proxyTopics;
+        private final int records;
+        private final int batchRecords;
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        Simulation(List<Cluster> timeline, List<String> topics, List<String> proxyTopics, int records, int batchRecords) {
+            this.timeline = timeline;
+            this.topics = topics.toArray(new String[0]);
+            this.proxyTopics = proxyTopics;
+            this.records = records;
+            this.batchRecords = batchRecords;
+        }
+
+        Result run(Partitioner p, Map<String, Object> configs, String name, int snapshots) {
+            p.configure(configs);
+            final Result r = new Result();
+            final int[] chosen = new int[records];
+            final boolean[] rolled = new boolean[records];
+            final int[] batch = new int[topics.length];
+            final int[] previous = new int[topics.length];
+            Arrays.fill(previous, -1);
+
+            for (Cluster cluster : timeline.subList(0, snapshots)) {
+                // Only the partitioner calls are timed, book keeping is done after
+                final long start = this.cpuTimeNs();
+                for (int i = 0; i < records; i++) {
+                    final int t = i % topics.length;
+                    int partition = p.partition(topics[t], null, null, null, null, cluster);
+                    rolled[i] = batch[t] == batchRecords;
+                    if (rolled[i]) {
+                        p.onNewBatch(topics[t], cluster, partition);
+                        partition = p.partition(topics[t], null, null, null, null, cluster);
+                        batch[t] = 0;
+                    }
+                    batch[t]++;
+                    chosen[i] = partition;
+                }
+                r.cpuNs += this.cpuTimeNs() - start;
+                this.tally(cluster, name, chosen, rolled, previous, r);
+            }
+            p.close();
+            return r;
+        }
+
+        private void tally(Cluster cluster, String name, int[] chosen, boolean[] rolled, int[] previous, Result r) {
+            final BitSet laggingAny = lagging(cluster, cluster.topics());
+            final int[][] leaders = new int[topics.length][];
+            final boolean[] fallback = new boolean[topics.length];
+            final BitSet proxyLagging = "proxy".equals(name) ? lagging(cluster, proxyTopics) : null;
+            for (int t = 0; t < topics.length; t++) {
+                final List<PartitionInfo> partitions = cluster.partitionsForTopic(topics[t]);
+                leaders[t] = new int[partitions.size()];
+                for (PartitionInfo p : partitions) {
+                    if (p.partition() < leaders[t].length) {
+                        leaders[t][p.partition()] = p.leader() == null ? -1 : p.leader().id();
+                    }
+                }
+
+                if (!"default".equals(name)) {
+                    final BitSet excluded = proxyLagging != null ? proxyLagging : lagging(cluster, Collections.singleton(topics[t]));
+                    fallback[t] = true;
+                    for (PartitionInfo p : cluster.availablePartitionsForTopic(topics[t])) {
+                        fallback[t] &= excluded.get(p.leader().id());
+                    }
+                }
+            }
+
+            for (int i = 0; i < chosen.length; i++) {
+                final int t = i % topics.length;
+                final int leader = chosen[i] < leaders[t].length ? leaders[t][chosen[i]] : -1;
+                r.records++;
+                if (leader >= 0) {
+                    r.perBroker.merge(leader, 1L, Long::sum);
+                    if (laggingAny.get(leader)) {
+                        r.toLagging++;
+                    }
+                }
+                if (previous[t] >= 0 && chosen[i] != previous[t]) {
+                    r.switches++;
+                }
+                previous[t] = chosen[i];
+                if (rolled[i] && fallback[t]) {
+                    r.fallbacks++;
+                }
+            }
+        }
+
+        private long cpuTimeNs() {
+            return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+    }
+
+    static void report(Map<String, Result> results) {
+        System.out.println(String.format("%-12s %12s %14s %12s %12s %12s %14s", 
+            "Partitioner", "Records", "CpuNs/Record", "Switches/1k", "Fallbacks", "ToLagging%", "MaxLoad/Mean"));
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            final Result r = e.getValue();
+            final double mean = r.perBroker.values().stream().mapToLong(Long::longValue).average().orElse(0);
+            final long max = r.perBroker.values().stream().mapToLong(Long::longValue).max().orElse(0);
+            System.out.println(String.format("%-12s %12d %14.1f %12.2f %12s %12.2f %14.2f", e.getKey(), r.records, 
+                r.cpuNs / (double) r.records, 1000d * r.switches / r.records, "default".equals(e.getKey()) ? "-" : Long.toString(r.fallbacks), 
+                100d * r.toLagging / r.records, mean == 0 ? 0 : max / mean));
+        }
+
+        System.out.println();
+        final StringBuilder header = new StringBuilder(String.format("%-8s", "Broker"));
+        final BitSet brokers = new BitSet();
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            header.append(String.format(" %12s", e.getKey() + "%"));
+            e.getValue().perBroker.keySet().forEach(brokers::set);
+        }
+        System.out.println(header);
+        for (int b = brokers.nextSetBit(0); b >= 0; b = brokers.nextSetBit(b + 1)) {
+            final StringBuilder line = new StringBuilder(String.format("%-8d", b));
+            for (Result r : results.values()) {
+                line.append(String.format(" %12.2f", 100d * r.perBroker.getOrDefault(b, 0L) / r.records));
+            }
+            System.out.println(line);
+        }
+    }
+
+    static final class Result {
+        long records;
+        long cpuNs;
+        long switches;
+        long fallbacks;
+        long toLagging;
+        final Map<Integer, Long> perBroker = new HashMap<>();
+    }
+}
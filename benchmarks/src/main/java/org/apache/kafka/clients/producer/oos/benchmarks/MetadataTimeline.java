@@ -0,0 +1,213 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.ByteUtils;
+
+/**
+ * Compact file format for a timeline of {@link Cluster} metadata snapshots, keeping the leader, replicas and ISR of every partition.
+ * 
+ * The file is gzipped and starts with a magic number and version, followed by one entry per snapshot. 
+ * An entry is either a full snapshot, with IDs and counts written as varints, 
+ * or a single byte marking it as identical to the previous one, as metadata rarely changes between refreshes.
+ */
+public final class MetadataTimeline {
+    static final int MAGIC = 0x4f4f534d;
+    static final int VERSION = 1;
+    static final byte FULL = 1;
+    static final byte REPEAT = 2;
+
+    private MetadataTimeline() {}
+
+    /**
+     * Appends snapshots to a new timeline file.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private byte[] previous;
+        private int snapshots;
+
+        public Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void write(Cluster cluster) throws IOException {
+            final byte[] bytes = serialize(cluster);
+            if (previous != null && Arrays.equals(previous, bytes)) {
+                out.writeByte(REPEAT);
+            } else {
+                out.writeByte(FULL);
+                ByteUtils.writeVarint(bytes.length, out);
+                out.write(bytes);
+                previous = bytes;
+            }
+            snapshots++;
+        }
+
+        public int snapshots() {
+            return snapshots;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static void write(File file, List<Cluster> timeline) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            for (Cluster cluster : timeline) {
+                writer.write(cluster);
+            }
+        }
+    }
+
+    /**
+     * @return Snapshots in the order they were written, each as a new Cluster instance as the producer would hand out after a refresh
+     */
+    public static List<Cluster> read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a metadata timeline");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported metadata timeline version " + version);
+            }
+
+            final List<Cluster> timeline = new ArrayList<>();
+            byte[] previous = null;
+            while (true) {
+                final int type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return timeline;
+                }
+                if (type == FULL) {
+                    previous = new byte[ByteUtils.readVarint(in)];
+                    in.readFully(previous);
+                } else if (type != REPEAT || previous == null) {
+                    throw new IOException("Corrupt metadata timeline entry " + type + " at snapshot " + timeline.size());
+                }
+                timeline.add(deserialize(previous));
+            }
+        }
+    }
+
+    static byte[] serialize(Cluster cluster) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final String clusterId = cluster.clusterResource().clusterId();
+        out.writeUTF(clusterId == null ? "" : clusterId);
+
+        final List<Node> nodes = new ArrayList<>(cluster.nodes());
+        nodes.sort(Comparator.comparingInt(Node::id));
+        ByteUtils.writeVarint(nodes.size(), out);
+        for (Node n : nodes) {
+            ByteUtils.writeVarint(n.id(), out);
+            out.writeUTF(n.host());
+            ByteUtils.writeVarint(n.port(), out);
+            out.writeBoolean(n.hasRack());
+            if (n.hasRack()) {
+                out.writeUTF(n.rack());
+            }
+        }
+
+        final List<String> topics = new ArrayList<>(cluster.topics());
+        Collections.sort(topics);
+        ByteUtils.writeVarint(topics.size(), out);
+        for (String topic : topics) {
+            final List<PartitionInfo> partitions = new ArrayList<>(cluster.partitionsForTopic(topic));
+            partitions.sort(Comparator.comparingInt(PartitionInfo::partition));
+            out.writeUTF(topic);
+            ByteUtils.writeVarint(partitions.size(), out);
+            for (PartitionInfo p : partitions) {
+                ByteUtils.writeVarint(p.partition(), out);
+                ByteUtils.writeVarint(p.leader() == null ? -1 : p.leader().id(), out);
+                writeNodes(p.replicas(), out);
+                writeNodes(p.inSyncReplicas(), out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeNodes(Node[] nodes, DataOutput out) throws IOException {
+        ByteUtils.writeVarint(nodes.length, out);
+        for (Node n : nodes) {
+            ByteUtils.writeVarint(n.id(), out);
+        }
+    }
+
+    static Cluster deserialize(byte[] bytes) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        final String clusterId = in.readUTF();
+
+        final Map<Integer, Node> nodes = new HashMap<>();
+        final int numNodes = ByteUtils.readVarint(in);
+        for (int i = 0; i < numNodes; i++) {
+            final int id = ByteUtils.readVarint(in);
+            final String host = in.readUTF();
+            final int port = ByteUtils.readVarint(in);
+            final String rack = in.readBoolean() ? in.readUTF() : null;
+            nodes.put(id, new Node(id, host, port, rack));
+        }
+
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        final int numTopics = ByteUtils.readVarint(in);
+        for (int t = 0; t < numTopics; t++) {
+            final String topic = in.readUTF();
+            final int numPartitions = ByteUtils.readVarint(in);
+            for (int i = 0; i < numPartitions; i++) {
+                final int partition = ByteUtils.readVarint(in);
+                final int leader = ByteUtils.readVarint(in);
+                partitions.add(new PartitionInfo(topic, partition, leader < 0 ? null : node(nodes, leader), readNodes(nodes, in), readNodes(nodes, in)));
+            }
+        }
+        return new Cluster(clusterId.isEmpty() ? null : clusterId, nodes.values(), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    private static Node[] readNodes(Map<Integer, Node> nodes, DataInput in) throws IOException {
+        final Node[] read = new Node[ByteUtils.readVarint(in)];
+        for (int i = 0; i < read.length; i++) {
+            read[i] = node(nodes, ByteUtils.readVarint(in));
+        }
+        return read;
+    }
+
+    /**
+     * Replicas can be on Brokers that are down and so missing from the metadata's nodes
+     */
+    private static Node node(Map<Integer, Node> nodes, int id) {
+        final Node node = nodes.get(id);
+        return node != null ? node : new Node(id, "", -1);
+    }
+}
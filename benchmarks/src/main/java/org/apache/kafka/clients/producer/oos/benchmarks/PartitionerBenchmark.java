@@ -0,0 +1,148 @@
+package org.apache.kafka.clients.producer.oos.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.RoundRobinPartitioner;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectPartitioner;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectStickyPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per record and per batch roll cost of the redirect partitioners against Kafka's {@link DefaultPartitioner}, 
+ * and of the round robin redirect mode against Kafka's {@link RoundRobinPartitioner}.
+ * 
+ * Thread count is controlled from the command line, e.g. {@code java -jar benchmarks.jar -t 64 -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartitionerBenchmark {
+    private static final byte[] VALUE = new byte[512];
+
+    @Param({"redirect", "proxy", "default", "round-robin", "default-round-robin"})
+    public String partitioner;
+
+    @Param({"3", "30", "1000"})
+    public int brokers;
+
+    @Param({"10", "1000", "50000"})
+    public int partitions;
+
+    @Param({"0", "0.1", "0.5"})
+    public double outOfSyncRatio;
+
+    Partitioner p;
+    Cluster cluster;
+    Cluster refreshedCluster;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cluster = ClusterGenerator.generate(brokers, partitions, outOfSyncRatio, 42L);
+        // Same state of the world but a new instance, as the producer hands out after a metadata refresh
+        refreshedCluster = ClusterGenerator.generate(brokers, partitions, outOfSyncRatio, 42L);
+        p = create(partitioner);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        p.close();
+    }
+
+    /**
+     * Per thread toggle between the two Cluster instances.
+     */
+    @State(Scope.Thread)
+    public static class Refresh {
+        boolean flip;
+
+        boolean next() {
+            flip = !flip;
+            return flip;
+        }
+    }
+
+    static Partitioner create(String name) {
+        final Map<String, Object> configs = new HashMap<>();
+        // The redirect partitioners validate the producer's configs, which the producer always passes along
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, ClusterGenerator.PROXY_TOPIC);
+
+        final Partitioner p;
+        switch (name) {
+            case "redirect":
+                p = new OutOfSyncRedirectPartitioner();
+                break;
+            case "proxy":
+                p = new OutOfSyncProxyRedirectPartitioner();
+                break;
+            case "default":
+                p = new DefaultPartitioner();
+                break;
+            case "round-robin":
+                configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.ROUND_ROBIN_CONFIG, true);
+                p = new OutOfSyncRedirectPartitioner();
+                break;
+            case "default-round-robin":
+                p = new RoundRobinPartitioner();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown partitioner: " + name);
+        }
+        p.configure(configs);
+        return p;
+    }
+
+    /**
+     * Cost of partitioning a single keyless record against the current sticky partition.
+     */
+    @Benchmark
+    public int partition() {
+        return p.partition(ClusterGenerator.TOPIC, null, null, null, VALUE, cluster);
+    }
+
+    /**
+     * Cost of a batch roll followed by partitioning the record that triggered it.
+     */
+    @Benchmark
+    public int onNewBatch() {
+        final int prev = p.partition(ClusterGenerator.TOPIC, null, null, null, VALUE, cluster);
+        p.onNewBatch(ClusterGenerator.TOPIC, cluster, prev);
+        return p.partition(ClusterGenerator.TOPIC, null, null, null, VALUE, cluster);
+    }
+
+    /**
+     * Cost of a batch roll when every roll observes a new Cluster instance, i.e. the worst case right after metadata refreshes.
+     */
+    @Benchmark
+    public int onNewBatchMetadataRefresh(Refresh refresh) {
+        final Cluster c = refresh.next() ? cluster : refreshedCluster;
+        final int prev = p.partition(ClusterGenerator.TOPIC, null, null, null, VALUE, c);
+        p.onNewBatch(ClusterGenerator.TOPIC, c, prev);
+        return p.partition(ClusterGenerator.TOPIC, null, null, null, VALUE, c);
+    }
+}
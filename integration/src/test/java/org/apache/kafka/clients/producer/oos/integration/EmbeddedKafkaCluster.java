@@ -0,0 +1,99 @@
+package org.apache.kafka.clients.producer.oos.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import kafka.metrics.KafkaMetricsReporter;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServer;
+import scala.Option;
+import scala.jdk.javaapi.CollectionConverters;
+
+/**
+ * In process ZooKeeper and Kafka Brokers listening on localhost, with their data in a temporary directory.
+ */
+final class EmbeddedKafkaCluster implements AutoCloseable {
+    private static final ListenerName LISTENER = ListenerName.normalised("PLAINTEXT");
+
+    private final File dir;
+    private final ZooKeeperServer zooKeeper;
+    private final ServerCnxnFactory zooKeeperConnections;
+    private final List<KafkaServer> brokers = new ArrayList<>();
+
+    /**
+     * @param numBrokers Number of Brokers to start, with IDs from 0
+     * @param brokerConfigs Configs of each Broker by ID
+     */
+    EmbeddedKafkaCluster(int numBrokers, IntFunction<Map<String, Object>> brokerConfigs) throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("oos-integration").toFile();
+        zooKeeper = new ZooKeeperServer(new File(dir, "zookeeper"), new File(dir, "zookeeper"), 500);
+        zooKeeperConnections = ServerCnxnFactory.createFactory(new InetSocketAddress("localhost", 0), 1024);
+        zooKeeperConnections.startup(zooKeeper);
+
+        try {
+            for (int id = 0; id < numBrokers; id++) {
+                final Properties props = new Properties();
+                props.put(KafkaConfig.BrokerIdProp(), Integer.toString(id));
+                props.put(KafkaConfig.ZkConnectProp(), "localhost:" + zooKeeperConnections.getLocalPort());
+                props.put(KafkaConfig.ListenersProp(), "PLAINTEXT://localhost:0");
+                props.put(KafkaConfig.LogDirProp(), new File(dir, "broker-" + id).getAbsolutePath());
+                props.put(KafkaConfig.OffsetsTopicReplicationFactorProp(), "1");
+                props.put(KafkaConfig.TransactionsTopicReplicationFactorProp(), "1");
+                props.put(KafkaConfig.GroupInitialRebalanceDelayMsProp(), "0");
+                props.putAll(brokerConfigs.apply(id));
+
+                final KafkaServer broker = new KafkaServer(KafkaConfig.fromProps(props), Time.SYSTEM, Option.empty(), 
+                    CollectionConverters.asScala(Collections.<KafkaMetricsReporter>emptyList()));
+                broker.startup();
+                brokers.add(broker);
+            }
+        } catch (RuntimeException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    String bootstrapServers() {
+        return brokers.stream()
+            .map(b -> "localhost:" + b.boundPort(LISTENER))
+            .collect(Collectors.joining(","));
+    }
+
+    Admin admin() {
+        return Admin.create(Collections.singletonMap(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, this.bootstrapServers()));
+    }
+
+    @Override
+    public void close() {
+        for (KafkaServer broker : brokers) {
+            broker.shutdown();
+        }
+        for (KafkaServer broker : brokers) {
+            broker.awaitShutdown();
+        }
+        zooKeeperConnections.shutdown();
+        zooKeeper.shutdown();
+        try {
+            Utils.delete(dir);
+        } catch (IOException e) {
+            // Left to the OS to clean up the temporary directory
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.apache.kafka.clients.producer.oos.integration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outcome of producing to the embedded cluster with one partitioner, along with the ack latency of every acked record.
+ */
+final class PerfResult {
+    final String partitioner;
+    long sent;
+    long acked;
+    long timedOut;
+    long failed;
+    long elapsedMs;
+    long ackedBytes;
+    long toSlowBroker;
+    final AtomicInteger isrSamples = new AtomicInteger();
+    final AtomicInteger outOfSyncSamples = new AtomicInteger();
+    private long[] latenciesNs = new long[1024];
+    private int numLatencies;
+
+    PerfResult(String partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * Callbacks all run on the producer's single I/O thread, this is only synchronized so results can be read safely afterwards
+     */
+    synchronized void recordAck(long latencyNs, int bytes) {
+        if (numLatencies == latenciesNs.length) {
+            latenciesNs = Arrays.copyOf(latenciesNs, numLatencies * 2);
+        }
+        latenciesNs[numLatencies++] = latencyNs;
+        acked++;
+        ackedBytes += bytes;
+    }
+
+    synchronized void recordTimeout() {
+        timedOut++;
+    }
+
+    synchronized void recordFailure() {
+        failed++;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return Ack latency in ms at the percentile
+     */
+    synchronized double latencyMs(double percentile) {
+        if (numLatencies == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(latenciesNs, numLatencies);
+        Arrays.sort(sorted);
+        final int index = (int) Math.min(numLatencies - 1, Math.ceil(percentile / 100 * numLatencies) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000d;
+    }
+
+    /**
+     * @return Share of the acked records that were sent to partitions led by the slow Broker
+     */
+    synchronized double slowBrokerShare() {
+        return acked == 0 ? 0 : toSlowBroker / (double) acked;
+    }
+
+    synchronized String toJson() {
+        final double seconds = Math.max(1, elapsedMs) / 1000d;
+        return String.format(Locale.ROOT, "{\"partitioner\":\"%s\",\"sent\":%d,\"acked\":%d,\"timedOut\":%d,\"failed\":%d,"
+                + "\"elapsedMs\":%d,\"recordsPerSec\":%.1f,\"mbPerSec\":%.3f,"
+                + "\"latencyMs\":{\"p50\":%.3f,\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f},"
+                + "\"slowBrokerShare\":%.4f,\"slowBrokerOutOfSyncRatio\":%.3f}", 
+            partitioner, sent, acked, timedOut, failed, 
+            elapsedMs, acked / seconds, ackedBytes / seconds / (1024 * 1024), 
+            this.latencyMs(50), this.latencyMs(99), this.latencyMs(99.9), this.latencyMs(100), 
+            this.slowBrokerShare(), 
+            isrSamples.get() == 0 ? 0 : outOfSyncSamples.get() / (double) isrSamples.get());
+    }
+
+    static String toJson(String settings, List<PerfResult> results) {
+        final StringBuilder json = new StringBuilder("{").append(settings).append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            json.append(i > 0 ? "," : "").append(results.get(i).toJson());
+        }
+        return json.append("]}").toString();
+    }
+}
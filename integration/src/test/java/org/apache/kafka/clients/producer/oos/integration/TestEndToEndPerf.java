@@ -0,0 +1,201 @@
+package org.apache.kafka.clients.producer.oos.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AlterConfigOp;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectPartitioner;
+import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectStickyPartitionCache;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectPartitioner;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Produces to an embedded 3 Broker cluster, where one of the Brokers replicates slowly enough to fall out of the ISR 
+ * and is then kept out by replication quotas, and compares the redirect partitioners to Kafka's {@link DefaultPartitioner}. 
+ * Throughput, ack latency percentiles, timed out records and the share of records sent to partitions led by the slow Broker 
+ * are written as JSON to `perf.report`, by default `target/perf-report.json`.
+ * 
+ * Tunable through system properties, e.g. {@code mvn -f integration/pom.xml test -Dperf.duration.ms=60000}: 
+ * `perf.duration.ms`, `perf.record.bytes`, `perf.throttle.bytes` and `perf.delivery.timeout.ms`.
+ */
+public class TestEndToEndPerf {
+    private static final Logger LOG = LoggerFactory.getLogger(TestEndToEndPerf.class);
+    static final int BROKERS = 3;
+    static final int SLOW_BROKER = 2;
+    static final int PARTITIONS = 12;
+    static final long ISR_SAMPLE_MS = 500;
+
+    private final long durationMs = Long.getLong("perf.duration.ms", 15000L);
+    private final int recordBytes = Integer.getInteger("perf.record.bytes", 1024);
+    private final long throttleBytes = Long.getLong("perf.throttle.bytes", 64 * 1024L);
+    private final int deliveryTimeoutMs = Integer.getInteger("perf.delivery.timeout.ms", 10000);
+    private final File report = new File(System.getProperty("perf.report", "target/perf-report.json"));
+
+    @Test
+    public void testRedirectVersusDefaultPartitioner() throws Exception {
+        final List<PerfResult> results = new ArrayList<>();
+        try (EmbeddedKafkaCluster cluster = new EmbeddedKafkaCluster(BROKERS, this::brokerConfigs); Admin admin = cluster.admin()) {
+            // Replication quotas only throttle replicas that are behind the high watermark, i.e. already out of the ISR, 
+            // so this keeps the slow Broker from catching up once its slow fetches have dropped it out
+            admin.incrementalAlterConfigs(Collections.singletonMap(new ConfigResource(ConfigResource.Type.BROKER, Integer.toString(SLOW_BROKER)), 
+                Collections.singletonList(new AlterConfigOp(new ConfigEntry("follower.replication.throttled.rate", Long.toString(throttleBytes)), AlterConfigOp.OpType.SET))
+            )).all().get(30, TimeUnit.SECONDS);
+
+            results.add(this.run(cluster, admin, "default", DefaultPartitioner.class));
+            results.add(this.run(cluster, admin, "redirect", OutOfSyncRedirectPartitioner.class));
+            results.add(this.run(cluster, admin, "proxy", OutOfSyncProxyRedirectPartitioner.class));
+        }
+
+        final String settings = String.format(Locale.ROOT, "\"brokers\":%d,\"slowBroker\":%d,\"partitions\":%d,\"durationMs\":%d,"
+            + "\"recordBytes\":%d,\"throttleBytesPerSec\":%d,\"deliveryTimeoutMs\":%d", 
+            BROKERS, SLOW_BROKER, PARTITIONS, durationMs, recordBytes, throttleBytes, deliveryTimeoutMs);
+        final String json = PerfResult.toJson(settings, results);
+        if (report.getAbsoluteFile().getParentFile() != null) {
+            report.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        Files.write(report.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        LOG.info("Wrote perf report to `{}`: {}", report, json);
+
+        for (PerfResult r : results) {
+            assertTrue(r.acked > 0, r.partitioner + " didn't get any records acked");
+            assertEquals(r.sent, r.acked + r.timedOut + r.failed, r.partitioner + " lost track of records");
+        }
+        // The redirect partitioners steer records away from the partitions led by the out of sync Broker
+        final PerfResult defaultResult = results.get(0);
+        for (PerfResult r : results.subList(1, results.size())) {
+            assertTrue(r.slowBrokerShare() < defaultResult.slowBrokerShare(), 
+                r.partitioner + " sent " + r.slowBrokerShare() + " of its records to the slow Broker, not less than default's " + defaultResult.slowBrokerShare());
+        }
+    }
+
+    Map<String, Object> brokerConfigs(int id) {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put("replica.lag.time.max.ms", "1000");
+        configs.put("auto.create.topics.enable", "false");
+        if (id == SLOW_BROKER) {
+            // Long polls for more data than is ever produced, so the Broker's fetches trail the leaders by as long as it may lag
+            configs.put("replica.fetch.min.bytes", Integer.toString(Integer.MAX_VALUE));
+            configs.put("replica.fetch.wait.max.ms", "1000");
+        }
+        return configs;
+    }
+
+    /**
+     * @return True if the slow Broker is out of the ISR of any of the topic's partitions, the same as the redirect partitioners consider it
+     */
+    boolean isSlowBrokerOutOfSync(Admin admin, String topic) {
+        try {
+            for (TopicPartitionInfo p : admin.describeTopics(Collections.singleton(topic)).all().get(ISR_SAMPLE_MS, TimeUnit.MILLISECONDS).get(topic).partitions()) {
+                if (p.isr().stream().mapToInt(Node::id).noneMatch(id -> id == SLOW_BROKER)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | java.util.concurrent.TimeoutException e) {
+            // Missed sample
+        }
+        return false;
+    }
+
+    /**
+     * Produces to a new topic, whose replicas on the slow Broker are throttled, as fast as the producer allows for the duration. 
+     * The topic is deleted afterwards so the slow Broker doesn't keep spending its quota catching up on it during the next run.
+     */
+    PerfResult run(EmbeddedKafkaCluster cluster, Admin admin, String name, Class<? extends Partitioner> partitioner) throws Exception {
+        final String topic = "perf-" + name;
+        final Map<String, String> topicConfigs = new HashMap<>();
+        topicConfigs.put("min.insync.replicas", "2");
+        topicConfigs.put("follower.replication.throttled.replicas", "*");
+        admin.createTopics(Collections.singleton(new NewTopic(topic, PARTITIONS, (short) BROKERS).configs(topicConfigs))).all().get(30, TimeUnit.SECONDS);
+
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, cluster.bootstrapServers());
+        configs.put(ProducerConfig.CLIENT_ID_CONFIG, topic);
+        configs.put(ProducerConfig.ACKS_CONFIG, "all");
+        configs.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        configs.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 4 * 1024 * 1024L);
+        configs.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, Math.min(3000, deliveryTimeoutMs - 5));
+        configs.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, deliveryTimeoutMs);
+        // Let the redirect partitioners see ISR changes promptly
+        configs.put(ProducerConfig.METADATA_MAX_AGE_CONFIG, 1000);
+        configs.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, partitioner);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.METRICS_ENABLED_CONFIG, false);
+        // Judges health from the topic being produced too, as there's no other traffic for a separate proxy topic to lag on
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, topic);
+
+        final PerfResult result = new PerfResult(name);
+        final Map<Integer, AtomicLong> perPartition = new ConcurrentHashMap<>();
+        final byte[] value = new byte[recordBytes];
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            if (this.isSlowBrokerOutOfSync(admin, topic)) {
+                result.outOfSyncSamples.incrementAndGet();
+            }
+            result.isrSamples.incrementAndGet();
+        }, ISR_SAMPLE_MS, ISR_SAMPLE_MS, TimeUnit.MILLISECONDS);
+        try (KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(configs, new ByteArraySerializer(), new ByteArraySerializer())) {
+            final long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < durationMs) {
+                final long sentNs = System.nanoTime();
+                producer.send(new ProducerRecord<>(topic, value), (metadata, e) -> {
+                    if (e == null) {
+                        result.recordAck(System.nanoTime() - sentNs, recordBytes);
+                        perPartition.computeIfAbsent(metadata.partition(), p -> new AtomicLong()).incrementAndGet();
+                    } else if (e instanceof TimeoutException) {
+                        result.recordTimeout();
+                    } else {
+                        result.recordFailure();
+                    }
+                });
+                result.sent++;
+            }
+            producer.flush();
+            result.elapsedMs = System.currentTimeMillis() - start;
+
+            for (PartitionInfo p : producer.partitionsFor(topic)) {
+                if (p.leader() != null && p.leader().id() == SLOW_BROKER) {
+                    result.toSlowBroker += perPartition.getOrDefault(p.partition(), new AtomicLong()).get();
+                }
+            }
+        }
+
+        sampler.shutdownNow();
+        sampler.awaitTermination(30, TimeUnit.SECONDS);
+        admin.deleteTopics(Collections.singleton(topic)).all().get(30, TimeUnit.SECONDS);
+        return result;
+    }
+}
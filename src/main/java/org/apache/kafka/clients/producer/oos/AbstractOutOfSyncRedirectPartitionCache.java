@@ -1,25 +1,121 @@
 package org.apache.kafka.clients.producer.oos;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.Configurable;
-import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigDef.ValidString;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class AbstractOutOfSyncRedirectPartitionCache implements Configurable {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractOutOfSyncRedirectPartitionCache.class);
+    private static final int NO_PARTITION = StickyPartition.NO_PARTITION;
+    /** Health source used for readmission damping when the out of sync nodes are shared by all topics. */
+    static final String SHARED_HEALTH_SOURCE = "";
+    /** Number of round robin positions between checking for pending evictions, a power of 2. */
+    static final int ROUND_ROBIN_EVICTION_INTERVAL = 64;
 
-    private final ConcurrentMap<String, Integer> indexCache = new ConcurrentHashMap<>();
+    private volatile StickyPartitionIndex indexCache = StickyPartitionIndex.unbounded();
+    private final AtomicReference<ClusterHealthSnapshot> snapshot = new AtomicReference<>(ClusterHealthSnapshot.EMPTY);
+    /** Snapshot being evaluated in the background when asynchronous, only published once complete. */
+    private final AtomicReference<ClusterHealthSnapshot> pending = new AtomicReference<>(ClusterHealthSnapshot.EMPTY);
+
+    protected boolean clusterHealthScope;
+    protected Set<String> healthTopics = Collections.emptySet();
+    protected boolean keyed;
+    protected long stickyBatchBytes;
+    protected int roundRobinRecords;
+    protected String clientRack;
+    protected int rackMinLocalPartitions;
+    private BrokerStickyTarget brokerSticky;
+    private LoadSpreadingCap loadCap;
+    private BrokerHealthSource brokerHealthSource = new IsrBrokerHealthSource();
+    private ExclusionPolicy exclusionPolicy = new BrokerExclusionPolicy();
+    private NodeLatencies latencies;
+    private long latencyRefreshMs;
+    private double latencyMinWeight;
+    private AsyncHealthEvaluator evaluator;
+    private final LongAdder healthComputations = new LongAdder();
+    private final LongAdder healthReuses = new LongAdder();
+    private OutOfSyncRedirectMetrics metrics;
+    private HealthTransitionNotifier notifier;
+    private ReadmissionDamper damper = new ReadmissionDamper(1, 0, 0, Time.SYSTEM);
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        this.configure(new Config(configs, true));
+    }
+
+    protected void configure(Config config) {
+        if (config.isLatencyWeighted() && config.getClientId().isEmpty()) {
+            // Latencies are matched to the partitioner by client.id, and older producers don't pass their generated client.id to the partitioner
+            throw new ConfigException(CommonClientConfigs.CLIENT_ID_CONFIG, null, 
+                "Must be set when " + Config.LATENCY_WEIGHTED_CONFIG + " is enabled, so that the partitioner finds the latencies reported by " 
+                + NodeLatencyReporter.class.getSimpleName());
+        }
+        clusterHealthScope = config.isClusterHealthScope();
+        healthTopics = Collections.unmodifiableSet(new HashSet<>(config.getHealthTopics()));
+        keyed = config.isKeyed();
+        if (config.isHealthShared()) {
+            brokerHealthSource = new SharedBrokerHealthSource(config.getClass(Config.HEALTH_SOURCE_CONFIG).getName(), config::getBrokerHealthSource);
+        } else {
+            brokerHealthSource = config.getBrokerHealthSource();
+        }
+        exclusionPolicy = config.getExclusionPolicy();
+        stickyBatchBytes = config.getStickyBatchBytes();
+        roundRobinRecords = config.isRoundRobin() ? config.getRoundRobinRecords() : 0;
+        clientRack = config.getClientRack();
+        rackMinLocalPartitions = config.getRackMinLocalPartitions();
+        if (config.getBrokerStickyMs() > 0 || config.getBrokerStickyBytes() > 0) {
+            brokerSticky = new BrokerStickyTarget(Time.SYSTEM, config.getBrokerStickyMs(), config.getBrokerStickyBytes());
+        }
+        loadCap = config.getLoadMaxShareFactor() > 0 ? new LoadSpreadingCap(config.getLoadMaxShareFactor()) : null;
+        if (config.isLatencyWeighted() && latencies == null) {
+            latencies = NodeLatencies.acquire(config.getClientId());
+            latencyRefreshMs = config.getLatencyRefreshMs();
+            latencyMinWeight = config.getLatencyMinWeight();
+        }
+        indexCache = new StickyPartitionIndex(Time.SYSTEM, config.getCacheMaxTopics(), config.getCacheTopicIdleMs(), this::evictTopic);
+        damper = new ReadmissionDamper(config.getReadmitMinInSyncSnapshots(), config.getReadmitMinInSyncMs(), config.getReadmitRampUpMs(), Time.SYSTEM);
+        if (notifier == null) {
+            notifier = new HealthTransitionNotifier(config.getHealthListeners(), Time.SYSTEM);
+        }
+        if (config.isMetricsEnabled() && metrics == null) {
+            metrics = new OutOfSyncRedirectMetrics(config.getClientId(), Time.SYSTEM, t -> snapshot.get().get(t));
+            metrics.addGauge("cached-topics", "Number of topics currently holding a sticky partition", 
+                (Gauge<Integer>) (c, now) -> this.getCachedTopicCount());
+            metrics.addGauge("evicted-topics", "Number of topics evicted from the cache", 
+                (Gauge<Long>) (c, now) -> this.getEvictedTopicCount());
+            metrics.addGauge("health-computations", "Number of times the health of a topic has been computed", 
+                (Gauge<Long>) (c, now) -> this.getHealthComputationCount());
+            metrics.addGauge("health-reuses", "Number of health computations that reused the previous snapshot's health of the topic as its partitions were unchanged", 
+                (Gauge<Long>) (c, now) -> this.getHealthReuseCount());
+        }
+        if (config.isAsyncHealthEvaluation() && evaluator == null) {
+            evaluator = new AsyncHealthEvaluator();
+        }
+    }
 
     /**
      * Either computes a new partition or returns the current partition to be publishing too.
@@ -29,14 +125,111 @@ public abstract class AbstractOutOfSyncRedirectPartitionCache implements Configu
      * @return New or Cached partition ID
      */
     public int partition(String topic, Cluster cluster) {
-        Integer part = indexCache.get(topic);
-        if (part == null) {
-            part = nextPartition(topic, cluster, -1);
+        final StickyPartition sticky = indexCache.get(topic);
+        int part = sticky == null ? NO_PARTITION : sticky.get();
+        if (part == NO_PARTITION) {
+            part = nextPartition(topic, cluster, NO_PARTITION);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Partition is `{}`", part);
         }
-        LOG.debug("Partition is `{}`", part);
         return part;
     }
 
+    /**
+     * Returns the partition for a record. Keyless records, or all records when keyed partitioning is disabled, 
+     * go to the current sticky partition. Keyed records go to their home partition unless it is excluded.
+     * 
+     * @param topic Topic to Partition against
+     * @param keyBytes Serialized key or null
+     * @param cluster Cluster Metadata state
+     * @return Partition ID
+     * @see TopicHealth#partitionForKey(int)
+     */
+    public int partition(String topic, byte[] keyBytes, Cluster cluster) {
+        return this.partition(topic, keyBytes, null, cluster);
+    }
+
+    /**
+     * Returns the partition for a record. Keyless records, or all records when keyed partitioning is disabled, 
+     * go to the current sticky partition. Keyed records go to their home partition unless it is excluded.
+     * 
+     * When a sticky batch byte budget is configured the size of every sticky record is counted against it, 
+     * and the sticky partition is switched once the budget is used up instead of on new batches. 
+     * Sticky records also count towards the broker sticky byte window.
+     * 
+     * When partitioning round robin, records instead cycle through the eligible partitions.
+     * 
+     * @param topic Topic to Partition against
+     * @param keyBytes Serialized key or null
+     * @param valueBytes Serialized value or null
+     * @param cluster Cluster Metadata state
+     * @return Partition ID
+     * @see TopicHealth#partitionForKey(int)
+     */
+    public int partition(String topic, byte[] keyBytes, byte[] valueBytes, Cluster cluster) {
+        if (keyBytes != null && keyed) {
+            return this.topicHealth(topic, cluster).partitionForKey(Utils.murmur2(keyBytes));
+        }
+        if (roundRobinRecords > 0) {
+            return this.roundRobinPartition(topic, cluster);
+        }
+        if (stickyBatchBytes <= 0 && brokerSticky == null) {
+            return this.partition(topic, cluster);
+        }
+
+        final int part = this.partition(topic, cluster);
+        final int size = (keyBytes == null ? 0 : keyBytes.length) + (valueBytes == null ? 0 : valueBytes.length);
+        if (brokerSticky != null) {
+            brokerSticky.produced(size);
+        }
+        if (stickyBatchBytes <= 0) {
+            return part;
+        }
+        final StickyPartition sticky = indexCache.get(topic);
+        if (sticky != null && sticky.produced(size, stickyBatchBytes)) {
+            // This record still goes to the current partition, the following ones go to the next
+            sticky.resetProducedBytes();
+            this.nextPartition(topic, cluster, part);
+        }
+        return part;
+    }
+
+    /**
+     * Switches the sticky partition when a new batch is created, unless a sticky batch byte budget is configured 
+     * in which case switching is driven by the bytes produced, or when partitioning round robin.
+     * 
+     * @param topic Topic to Partition against
+     * @param cluster Cluster Metadata state
+     * @param prevPartition Partition that the new batch was created for
+     */
+    public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
+        if (stickyBatchBytes <= 0 && roundRobinRecords <= 0) {
+            this.nextPartition(topic, cluster, prevPartition);
+        }
+    }
+
+    /**
+     * Returns the eligible partition at the topic's next round robin position. 
+     * Positions are counted per stripe of threads, see {@link RoundRobinCounter}.
+     * 
+     * @param topic Topic to Partition against
+     * @param cluster Cluster Metadata state
+     * @return Partition ID
+     */
+    int roundRobinPartition(String topic, Cluster cluster) {
+        StickyPartition sticky = indexCache.get(topic);
+        if (sticky == null) {
+            sticky = indexCache.getOrCreate(topic);
+        }
+        final long position = sticky.roundRobin(roundRobinRecords).next();
+        if ((position & (ROUND_ROBIN_EVICTION_INTERVAL - 1)) == 0) {
+            // There are no batch rolls to run pending evictions from
+            indexCache.maybeEvict(topic);
+        }
+        return this.topicHealth(topic, cluster).partitionAt(position);
+    }
+
     /**
      * Moves the index to a new computed one. 
      * Not ment to be called directly when look to get a partition to send a record to.
@@ -48,58 +241,216 @@ public abstract class AbstractOutOfSyncRedirectPartitionCache implements Configu
      */
     public int nextPartition(String topic, Cluster cluster, int prevPartition) {
         LOG.debug("Computing new Partition");
-        List<PartitionInfo> partitions = cluster.partitionsForTopic(topic);
-        Integer oldPart = indexCache.get(topic);
-        Integer newPart = oldPart;
+        final StickyPartition sticky = indexCache.getOrCreate(topic);
+
+        final int oldPart = sticky.get();
         // Check that the current sticky partition for the topic is either not set or that the partition that 
         // triggered the new batch matches the sticky partition that needs to be changed.
-        if (oldPart == null || oldPart == prevPartition) {
-            List<PartitionInfo> availablePartitions = this.computeAvailablePartitions(topic, cluster);
-            if (availablePartitions.size() < 1) {
-                Integer random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
-                newPart = random % partitions.size();
-            } else if (availablePartitions.size() == 1) {
-                newPart = availablePartitions.get(0).partition();
-            } else {
-                while (newPart == null || newPart.equals(oldPart)) {
-                    Integer random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
-                    newPart = availablePartitions.get(random % availablePartitions.size()).partition();
-                }
+        if (oldPart == NO_PARTITION || oldPart == prevPartition) {
+            final TopicHealth health = this.topicHealth(topic, cluster);
+            final NodeLatencies.Weights latencyWeights = latencies == null ? null 
+                : latencies.weights(Time.SYSTEM.milliseconds(), latencyRefreshMs, latencyMinWeight);
+            final int newPart = brokerSticky == null ? health.nextPartition(oldPart, latencyWeights) 
+                : brokerSticky.nextPartition(health, oldPart, latencyWeights);
+            // Only change the sticky partition if no other thread has already moved it since we read it.
+            if (sticky.compareAndSet(oldPart, newPart) && metrics != null) {
+                metrics.recordBatchRoll(topic, health);
             }
-            // Only change the sticky partition if it is null or prevPartition matches the current sticky partition.
-            if (oldPart == null) {
-                indexCache.putIfAbsent(topic, newPart);
-            } else {
-                indexCache.replace(topic, prevPartition, newPart);
+        }
+        return sticky.get();
+    }
+
+    /**
+     * Returns the health of the topic, only computing it once per Cluster metadata instance.
+     * Concurrent callers that race on a new Cluster wait for the first caller to compute it instead of each computing it.
+     * 
+     * When asynchronous evaluation is enabled, a new Cluster instance only schedules a background evaluation 
+     * and the health from the previous snapshot keeps being used until the new one is published. 
+     * Topics the previous snapshot doesn't know, e.g. new or evicted topics, are computed into the pending snapshot, 
+     * so that the other topics keep using the previous health rather than each computing theirs inline.
+     * 
+     * @param topic Topic to Partition against
+     * @param cluster Cluster Metadata state
+     * @return Eligible partitions for the topic
+     */
+    TopicHealth topicHealth(final String topic, final Cluster cluster) {
+        final long generation = brokerHealthSource.generation();
+        ClusterHealthSnapshot current = snapshot.get();
+        if (!current.isFor(cluster, generation)) {
+            // Until a first snapshot is published there's no health to keep using
+            if (evaluator != null && current != ClusterHealthSnapshot.EMPTY) {
+                final ClusterHealthSnapshot previous = current;
+                final ClusterHealthSnapshot next = this.pendingSnapshot(previous, cluster, generation);
+                evaluator.schedule(cluster, generation, () -> this.evaluate(previous, next));
+                final TopicHealth stale = previous.get(topic);
+                if (stale != null) {
+                    return stale;
+                }
+                return next.computeIfAbsent(topic, t -> this.countedTopicHealth(t, next));
             }
-            return indexCache.get(topic);
+            current = this.snapshot(cluster, generation);
         }
-        return indexCache.get(topic);
+
+        final TopicHealth health = current.get(topic);
+        if (health != null) {
+            return health;
+        }
+        final ClusterHealthSnapshot computing = current;
+        return current.computeIfAbsent(topic, t -> this.countedTopicHealth(t, computing));
     }
 
-    protected Set<Node> findOutOfSyncNodes(String topic, Cluster cluster){
-        final List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
-        final Set<Node> nodesOutOfSync = new HashSet<>();
+    private TopicHealth countedTopicHealth(final String topic, final ClusterHealthSnapshot snapshot) {
+        healthComputations.increment();
+        final long start = System.nanoTime();
+        final TopicHealth health = this.computeTopicHealth(topic, snapshot);
+        if (metrics != null) {
+            metrics.recordHealthComputation(System.nanoTime() - start);
+        }
+        if (notifier != null) {
+            notifier.onComputed(topic, health);
+        }
+        return health;
+    }
 
-        //Find node that have out of sync partitions
-        for(PartitionInfo i: availablePartitions){
-            final Node[] isr = i.inSyncReplicas();
-            for(Node n: i.replicas()){
-                boolean found = false;
-                for(Node iNode: isr){
-                    if (iNode.equals(n)){
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found){
-                    LOG.info("Found Broker Node with out of sync replica: N={} P={}", n, i.partition());
-                    nodesOutOfSync.add(n);
+    private void evictTopic(final String topic) {
+        snapshot.get().remove(topic);
+        pending.get().remove(topic);
+        if (metrics != null) {
+            metrics.removeTopic(topic);
+        }
+        if (notifier != null) {
+            notifier.removeTopic(topic);
+        }
+        damper.remove(topic);
+        brokerHealthSource.evictTopic(topic);
+        exclusionPolicy.evictTopic(topic);
+    }
+
+    /**
+     * @return Number of topics currently holding a sticky partition
+     */
+    public int getCachedTopicCount() {
+        return indexCache.size();
+    }
+
+    /**
+     * @return Number of topics evicted from the cache for being idle or over the max size
+     */
+    public long getEvictedTopicCount() {
+        return indexCache.evictions();
+    }
+
+    /**
+     * @return Number of times the health of a topic has been computed, across all topics and snapshots
+     */
+    public long getHealthComputationCount() {
+        return healthComputations.sum();
+    }
+
+    /**
+     * @return Number of health computations that reused the health of the previous snapshot
+     */
+    public long getHealthReuseCount() {
+        return healthReuses.sum();
+    }
+
+    /**
+     * Returns the broker health shared by every topic, only computing it once per snapshot.
+     * 
+     * @param snapshot Snapshot of the Cluster Metadata state being evaluated
+     * @return Health of the brokers across {@link #sharedHealthTopics(Cluster)}
+     */
+    BrokerHealth sharedBrokerHealth(final ClusterHealthSnapshot snapshot) {
+        return snapshot.brokerHealth(() -> {
+            LOG.debug("Computing shared Broker health");
+            final Collection<String> topics = this.sharedHealthTopics(snapshot.cluster());
+            return new BrokerHealth(exclusionPolicy.excludedNodes(snapshot.cluster(), topics, brokerHealthSource.unhealthyNodes(snapshot.cluster(), topics)));
+        });
+    }
+
+    /**
+     * Returns the unpublished snapshot replacing the previous one for the Cluster instance and generation, creating it if needed.
+     */
+    private ClusterHealthSnapshot pendingSnapshot(final ClusterHealthSnapshot previous, final Cluster cluster, final long generation) {
+        final ClusterHealthSnapshot current = pending.get();
+        if (current.isFor(cluster, generation) && current.replaces(previous)) {
+            return current;
+        }
+        final ClusterHealthSnapshot next = new ClusterHealthSnapshot(cluster, generation, previous);
+        if (pending.compareAndSet(current, next)) {
+            return next;
+        }
+        final ClusterHealthSnapshot raced = pending.get();
+        return raced.isFor(cluster, generation) && raced.replaces(previous) ? raced : next;
+    }
+
+    /**
+     * Completes the pending snapshot with all the topics known to the previous snapshot and publishes it.
+     * The snapshot is dropped if a snapshot for a newer Cluster instance, or generation, has been published in the mean time.
+     */
+    private void evaluate(final ClusterHealthSnapshot previous, final ClusterHealthSnapshot next) {
+        LOG.debug("Evaluating health for new Cluster metadata");
+        final Cluster cluster = next.cluster();
+        final long generation = next.generation();
+        for (String topic : previous.topics()) {
+            next.computeIfAbsent(topic, t -> this.countedTopicHealth(t, next));
+        }
+
+        while (true) {
+            final ClusterHealthSnapshot current = snapshot.get();
+            if (current.isFor(cluster, generation)) {
+                // A caller already computed some topics inline for this Cluster, fill in the rest
+                for (String topic : next.topics()) {
+                    current.putIfAbsent(topic, next.get(topic));
                 }
+                return;
+            } else if (current != previous) {
+                LOG.debug("Dropping health evaluation for stale Cluster metadata");
+                return;
+            } else if (snapshot.compareAndSet(previous, next)) {
+                return;
             }
         }
+    }
 
-        return nodesOutOfSync;
+    /**
+     * @param cluster Cluster Metadata state
+     * @return Topics evaluated to build the shared broker health, either the configured topics or all known topics
+     */
+    Collection<String> sharedHealthTopics(final Cluster cluster) {
+        return healthTopics.isEmpty() ? cluster.topics() : healthTopics;
+    }
+
+    /**
+     * Returns the published snapshot for the Cluster instance and generation, publishing a new empty one if needed.
+     * If another thread concurrently publishes a snapshot for a different Cluster instance, 
+     * an unpublished snapshot is returned so that results are never mixed between Cluster instances.
+     */
+    private ClusterHealthSnapshot snapshot(final Cluster cluster, final long generation) {
+        final ClusterHealthSnapshot current = snapshot.get();
+        if (current.isFor(cluster, generation)) {
+            return current;
+        }
+        final ClusterHealthSnapshot next = new ClusterHealthSnapshot(cluster, generation, current);
+        if (snapshot.compareAndSet(current, next)) {
+            return next;
+        }
+        final ClusterHealthSnapshot raced = snapshot.get();
+        return raced.isFor(cluster, generation) ? raced : next;
+    }
+
+    /**
+     * Finds all the Nodes that the {@link BrokerHealthSource} considers unhealthy for the topic, 
+     * by default those that host a replica of the topic that is not in the ISR of its partition, 
+     * narrowed down by the {@link ExclusionPolicy}.
+     * 
+     * @param topic Topic to evaluate
+     * @param cluster Cluster Metadata state
+     * @return Bitmap of the out of sync Node IDs
+     */
+    protected BitSet findOutOfSyncNodes(String topic, Cluster cluster){
+        final Collection<String> topics = Collections.singleton(topic);
+        return exclusionPolicy.excludedNodes(cluster, topics, brokerHealthSource.unhealthyNodes(cluster, topics));
     }
 
     /**
@@ -107,28 +458,378 @@ public abstract class AbstractOutOfSyncRedirectPartitionCache implements Configu
      * OutOfSync Replicas are based on evaluating all leaders and replicas looking for a leader of 1 partition that has replicas for other partitions. 
      * If any of those other replicas are not InSync. 
      * Then that leader is consisered to not be available and there for all partitions it's a leader for to not be available. 
+     * Partitions that the {@link ExclusionPolicy} excludes on their own are not available either.
      * 
      * @param topic Topic to Partition against
      * @param cluster Cluster Metadata state
-     * @return New partition ID
+     * @param nodesOutOfSync Bitmap of the Node IDs to exclude
+     * @return Eligible partitions for the topic
      */
-    protected List<PartitionInfo> computeAvailablePartitions(final String topic, final Cluster cluster, final Set<Node> nodesOutOfSync){
+    protected TopicHealth computeTopicHealth(final String topic, final Cluster cluster, final BitSet nodesOutOfSync){
+        return this.computeTopicHealth(topic, new ClusterHealthSnapshot(cluster, brokerHealthSource.generation()), topic, nodesOutOfSync);
+    }
+
+    /**
+     * @param topic Topic to Partition against
+     * @param snapshot Snapshot of the Cluster Metadata state being evaluated
+     * @param healthSource What the out of sync nodes were found from, either the topic or {@link #SHARED_HEALTH_SOURCE}. 
+     *                     Used to track readmission damping.
+     * @param nodesOutOfSync Bitmap of the Node IDs that are out of sync
+     * @return Eligible partitions for the topic
+     */
+    TopicHealth computeTopicHealth(final String topic, final ClusterHealthSnapshot snapshot, final String healthSource, final BitSet nodesOutOfSync){
         LOG.debug("Computing Available Partitions based on InSyncReplicas");
+        final Cluster cluster = snapshot.cluster();
+        final ReadmissionDamper.Damped damped = damper.isEnabled() 
+            ? damper.apply(healthSource, cluster, snapshot.generation(), nodesOutOfSync) : null;
+        final BitSet excluded = damped == null ? nodesOutOfSync : damped.excluded();
+        final boolean ramping = damped != null && damped.isRamping();
+
         final List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
-        final List<PartitionInfo> inSyncAvailablePartitions = new LinkedList<>();
+        final Integer numPartitions = cluster.partitionCountForTopic(topic);
+        // Usually only a handful of partitions change between metadata refreshes, if none did the previous result still holds
+        final TopicHealth previous = ramping ? null : snapshot.previous(topic);
+        if (previous != null && previous.isComputedFrom(availablePartitions, numPartitions == null ? 0 : numPartitions, excluded)) {
+            LOG.debug("Reusing Available Partitions from the previous snapshot");
+            healthReuses.increment();
+            return previous;
+        }
+
+        final boolean excludesPartitions = exclusionPolicy.excludesPartitions();
+        final int[] inSyncAvailablePartitions = new int[availablePartitions.size()];
+        final boolean weighted = ramping || loadCap != null;
+        final double[] weights = weighted ? new double[availablePartitions.size()] : null;
+        final int[] leaders = latencies != null || brokerSticky != null || loadCap != null ? new int[availablePartitions.size()] : null;
+        final boolean[] local = clientRack != null ? new boolean[availablePartitions.size()] : null;
+        final int[] suspects = loadCap != null ? new int[availablePartitions.size()] : null;
+        int count = 0;
+        int localCount = 0;
+        int suspectCount = 0;
 
         //Find available partitions based on our leaders being in sync with all it's replicas
+        final boolean debug = LOG.isDebugEnabled();
         for(PartitionInfo i: availablePartitions){
-            if(!nodesOutOfSync.contains(i.leader())){
-                LOG.info("Parition is Valid: P=`{}` Leader=`{}`", i.partition(), i.leader());
-                inSyncAvailablePartitions.add(i);
+            if(!excluded.get(i.leader().id()) && !(excludesPartitions && exclusionPolicy.isExcluded(i))){
+                if (debug) {
+                    LOG.debug("Parition is Valid: P=`{}` Leader=`{}`", i.partition(), i.leader());
+                }
+                if (weighted) {
+                    weights[count] = ramping ? damped.weight(i.leader().id()) : 1;
+                }
+                if (leaders != null) {
+                    leaders[count] = i.leader().id();
+                }
+                if (local != null && clientRack.equals(i.leader().rack())) {
+                    local[count] = true;
+                    localCount++;
+                }
+                inSyncAvailablePartitions[count++] = i.partition();
             } else {
-                LOG.warn("Parition is InValid, Node has out of sync replica(s): P={} N={}", i.partition(), i.leader());
+                if (debug) {
+                    LOG.debug("Parition is InValid, excluded by the exclusion policy: P={} N={}", i.partition(), i.leader());
+                }
+                if (suspects != null) {
+                    suspects[suspectCount++] = i.partition();
+                }
             }
         }
 
-        return inSyncAvailablePartitions;
+        // Prefer the partitions led from the same rack, unless there's too few of them to spread load over
+        int pool = count;
+        if (local != null && localCount >= rackMinLocalPartitions && localCount < count) {
+            localFirst(count, local, inSyncAvailablePartitions, leaders, weights);
+            pool = localCount;
+        }
+
+        // Spill traffic above the remaining Brokers' caps onto the suspect partitions, unless purposely concentrated on the local rack
+        final double spillShare = loadCap != null && pool == count ? loadCap.apply(availablePartitions, count, leaders, weights) : 0;
+        if (spillShare > 0 && debug) {
+            LOG.debug("Spilling traffic onto suspect partitions: T=`{}` Share=`{}`", topic, spillShare);
+        }
+
+        return new TopicHealth(numPartitions == null ? 0 : numPartitions, Arrays.copyOf(inSyncAvailablePartitions, count), 
+            leaders != null ? Arrays.copyOf(leaders, count) : null, excluded, ramping || spillShare > 0 ? Arrays.copyOf(weights, count) : null, pool, 
+            spillShare > 0 ? Arrays.copyOf(suspects, suspectCount) : null, spillShare, 
+            new PartitionLayout(availablePartitions, clientRack != null, excludesPartitions));
+    }
+
+    /**
+     * Reorders the eligible partitions, along with their leaders and weights, so that the local ones come first while keeping their order.
+     */
+    private static void localFirst(int count, boolean[] local, int[] partitions, int[] leaders, double[] weights) {
+        final int[] sortedPartitions = new int[count];
+        final int[] sortedLeaders = leaders == null ? null : new int[count];
+        final double[] sortedWeights = weights == null ? null : new double[count];
+        int next = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean wantLocal = pass == 0;
+            for (int i = 0; i < count; i++) {
+                if (local[i] == wantLocal) {
+                    sortedPartitions[next] = partitions[i];
+                    if (leaders != null) {
+                        sortedLeaders[next] = leaders[i];
+                    }
+                    if (weights != null) {
+                        sortedWeights[next] = weights[i];
+                    }
+                    next++;
+                }
+            }
+        }
+        System.arraycopy(sortedPartitions, 0, partitions, 0, count);
+        if (leaders != null) {
+            System.arraycopy(sortedLeaders, 0, leaders, 0, count);
+        }
+        if (weights != null) {
+            System.arraycopy(sortedWeights, 0, weights, 0, count);
+        }
+    }
+
+    /**
+     * Stops any background evaluation, unregisters all metrics and closes the health transition listeners.
+     */
+    public void close() {
+        if (evaluator != null) {
+            evaluator.close();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        if (notifier != null) {
+            notifier.close();
+        }
+        if (latencies != null) {
+            latencies.release();
+            latencies = null;
+        }
+        Utils.closeQuietly(brokerHealthSource, "broker health source");
     }
 
-    abstract List<PartitionInfo> computeAvailablePartitions(String topic, Cluster cluster);
+    abstract TopicHealth computeTopicHealth(String topic, ClusterHealthSnapshot snapshot);
+
+    public static class Config extends AbstractConfig {
+        public static final String HEALTH_SCOPE_CONFIG = "partitioner.health.scope";
+        public static final String HEALTH_SCOPE_TOPIC = "topic";
+        public static final String HEALTH_SCOPE_CLUSTER = "cluster";
+        public static final String HEALTH_TOPICS_CONFIG = "partitioner.health.topics";
+        public static final String HEALTH_ASYNC_CONFIG = "partitioner.health.async";
+        public static final String CACHE_MAX_TOPICS_CONFIG = "partitioner.cache.max.topics";
+        public static final String CACHE_TOPIC_IDLE_MS_CONFIG = "partitioner.cache.topic.idle.ms";
+        public static final String METRICS_ENABLED_CONFIG = "partitioner.metrics.enabled";
+        public static final String HEALTH_LISTENERS_CONFIG = "partitioner.health.listeners";
+        public static final String KEYED_CONFIG = "partitioner.keyed";
+        public static final String HEALTH_SOURCE_CONFIG = "partitioner.health.source";
+        public static final String HEALTH_SHARED_CONFIG = "partitioner.health.shared";
+        public static final String EXCLUSION_POLICY_CONFIG = "partitioner.exclusion.policy";
+        public static final String STICKY_BATCH_BYTES_CONFIG = "partitioner.sticky.batch.bytes";
+        public static final String ROUND_ROBIN_CONFIG = "partitioner.round.robin";
+        public static final String ROUND_ROBIN_RECORDS_CONFIG = "partitioner.round.robin.records";
+        public static final String CLIENT_RACK_CONFIG = "partitioner.client.rack";
+        public static final String RACK_MIN_LOCAL_PARTITIONS_CONFIG = "partitioner.rack.min.local.partitions";
+        public static final String BROKER_STICKY_MS_CONFIG = "partitioner.broker.sticky.ms";
+        public static final String BROKER_STICKY_BYTES_CONFIG = "partitioner.broker.sticky.bytes";
+        public static final String LATENCY_WEIGHTED_CONFIG = "partitioner.latency.weighted";
+        public static final String LATENCY_REFRESH_MS_CONFIG = "partitioner.latency.refresh.ms";
+        public static final String LATENCY_MIN_WEIGHT_CONFIG = "partitioner.latency.min.weight";
+        public static final String LOAD_MAX_SHARE_FACTOR_CONFIG = "partitioner.load.max.share.factor";
+        public static final String READMIT_MIN_INSYNC_SNAPSHOTS_CONFIG = "partitioner.readmit.min.insync.snapshots";
+        public static final String READMIT_MIN_INSYNC_MS_CONFIG = "partitioner.readmit.min.insync.ms";
+        public static final String READMIT_RAMPUP_MS_CONFIG = "partitioner.readmit.rampup.ms";
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(HEALTH_SCOPE_CONFIG, Type.STRING, HEALTH_SCOPE_TOPIC, ValidString.in(HEALTH_SCOPE_TOPIC, HEALTH_SCOPE_CLUSTER), Importance.MEDIUM, 
+                    "Where out of sync brokers are detected from. `topic` only evaluates the topic being published too. "
+                    + "`cluster` builds one broker index per metadata snapshot, shared by every topic, from the topics in `" + HEALTH_TOPICS_CONFIG + "`")
+                .define(HEALTH_TOPICS_CONFIG, Type.LIST, Collections.emptyList(), Importance.LOW, 
+                    "Topics evaluated when using the `cluster` health scope. When empty all topics known to the producer are evaluated")
+                .define(HEALTH_ASYNC_CONFIG, Type.BOOLEAN, false, Importance.LOW, 
+                    "Evaluate health on a background thread when new Cluster metadata is observed, instead of on the send path. "
+                    + "The previous health is used until the evaluation completes")
+                .define(CACHE_MAX_TOPICS_CONFIG, Type.INT, Integer.MAX_VALUE, Range.atLeast(1), Importance.LOW, 
+                    "Max number of topics to keep a sticky partition and health for. The least recently used topics are evicted once exceeded")
+                .define(CACHE_TOPIC_IDLE_MS_CONFIG, Type.LONG, -1L, Importance.LOW, 
+                    "Time after which a topic that has not been published too is evicted. Idle topics are never evicted when less then 1")
+                .define(METRICS_ENABLED_CONFIG, Type.BOOLEAN, true, Importance.LOW, 
+                    "Register the partitioner's metrics, tagged by the producer's client.id, and expose them over JMX")
+                .define(HEALTH_LISTENERS_CONFIG, Type.LIST, LoggingHealthTransitionListener.class.getName(), Importance.LOW, 
+                    "Classes implementing " + HealthTransitionListener.class.getName() + " to notify when Brokers or Partitions enter or leave the excluded set")
+                .define(HEALTH_SOURCE_CONFIG, Type.CLASS, IsrBrokerHealthSource.class, Importance.MEDIUM, 
+                    "Class implementing " + BrokerHealthSource.class.getName() + " that decides which Brokers to exclude. "
+                    + "Use " + AdminBrokerHealthSource.class.getName() + " to poll the Brokers independently of the producer's metadata refreshes")
+                .define(HEALTH_SHARED_CONFIG, Type.BOOLEAN, false, Importance.LOW, 
+                    "Share the health source and its evaluations with every partitioner in the JVM producing to the same Kafka cluster, and configured with the same health source. "
+                    + "The health source is created from the config of the first partitioner, and closed once the last one is closed. Sticky partitions are kept per partitioner")
+                .define(EXCLUSION_POLICY_CONFIG, Type.CLASS, BrokerExclusionPolicy.class, Importance.MEDIUM, 
+                    "Class implementing " + ExclusionPolicy.class.getName() + " that decides which partitions to exclude given the unhealthy Brokers. "
+                    + "The default excludes every partition led by an unhealthy Broker. Use " + MinIsrExclusionPolicy.class.getName() + ", " 
+                    + UnderReplicatedExclusionPolicy.class.getName() + " or " + LaggingThresholdExclusionPolicy.class.getName() + " to keep more write capacity")
+                .define(KEYED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, 
+                    "Partition records with a key by the murmur2 hash of the key, the same as the default partitioner. "
+                    + "Keys whose partition is excluded are remapped through a consistent hash ring over the eligible partitions, until it is readmitted")
+                .define(STICKY_BATCH_BYTES_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.MEDIUM, 
+                    "Bytes of keys and values to send to the sticky partition before switching to a new one, similar to the batch.size based switching of newer producers. "
+                    + "Disabled with 0, switching on every new batch instead")
+                .define(ROUND_ROBIN_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, 
+                    "Cycle records through the eligible partitions instead of sticking to one at a time, spreading load evenly within short windows. "
+                    + "Positions are kept per stripe of threads, so producing threads don't contend on a shared counter. "
+                    + "Partitions are cycled through evenly, ignoring readmission ramping, latency and load spreading weights, as well as sticky switching configs")
+                .define(ROUND_ROBIN_RECORDS_CONFIG, Type.INT, 1, Range.atLeast(1), Importance.LOW, 
+                    "Number of consecutive records sent to a partition before moving to the next when cycling round robin, to keep batches fuller. "
+                    + "Records are counted per stripe of threads rather than per thread, so threads sharing a stripe interleave their records")
+                .define(CLIENT_RACK_CONFIG, Type.STRING, "", Importance.MEDIUM, 
+                    "Rack, or availability zone, of the producer. Partitions whose leader is in the same rack are preferred. "
+                    + "Defaults to the client.rack config when set, disabled when both are empty")
+                .define(RACK_MIN_LOCAL_PARTITIONS_CONFIG, Type.INT, 1, Range.atLeast(1), Importance.LOW, 
+                    "Min number of eligible partitions with a leader in the same rack, below which partitions in all racks are used")
+                .define(BROKER_STICKY_MS_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.MEDIUM, 
+                    "Time to pick the sticky partitions of all topics from partitions led by the same Broker, "
+                    + "so that their batches are sent in the same produce request. Disabled along with the byte window when 0")
+                .define(BROKER_STICKY_BYTES_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.MEDIUM, 
+                    "Bytes of keys and values of sticky records to send before moving all topics to a new Broker. Disabled along with the time window when 0")
+                .define(LATENCY_WEIGHTED_CONFIG, Type.BOOLEAN, false, Importance.MEDIUM, 
+                    "Weigh eligible partitions by the request latency of their leader, as reported by " + NodeLatencyReporter.class.getName() 
+                    + " which must also be registered in metric.reporters. Requires client.id to be set")
+                .define(LATENCY_REFRESH_MS_CONFIG, Type.LONG, 1000L, Range.atLeast(0), Importance.LOW, 
+                    "Min time between recomputing the latency weights of the Brokers")
+                .define(LATENCY_MIN_WEIGHT_CONFIG, Type.DOUBLE, 0.05, Range.between(0, 1), Importance.LOW, 
+                    "Lowest weight, relative to the fastest Broker, a slow Broker can be given so that its latency keeps being measured")
+                .define(LOAD_MAX_SHARE_FACTOR_CONFIG, Type.DOUBLE, 0.0, (name, value) -> {
+                        if ((Double) value != 0 && (Double) value < 1) {
+                            throw new ConfigException(name, value, "Must be 0 to disable, or at least 1");
+                        }
+                    }, Importance.MEDIUM, 
+                    "Max share of a topic's traffic a remaining Broker may receive while others are excluded, as a multiple of its share of the topic's partitions. "
+                    + "Traffic above it is spilled onto the excluded Brokers' partitions at a reduced weight instead, so that the load of excluded Brokers doesn't push the rest out of sync. "
+                    + "Not applied while preferring the local rack. Disabled when 0, otherwise must be at least 1")
+                .define(READMIT_MIN_INSYNC_SNAPSHOTS_CONFIG, Type.INT, 1, Range.atLeast(1), Importance.LOW, 
+                    "Number of consecutive metadata snapshots an excluded Broker must be seen in sync in before it is readmitted")
+                .define(READMIT_MIN_INSYNC_MS_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.LOW, 
+                    "Min time since an excluded Broker was last seen out of sync before it is readmitted")
+                .define(READMIT_RAMPUP_MS_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.LOW, 
+                    "Time over which a readmitted Broker's share of traffic is ramped up linearly, evaluated on each metadata snapshot");
+        }
+
+        public Config(Map<?, ?> props, boolean doLog) {
+            this(CONFIG, props, doLog);
+        }
+
+        protected Config(ConfigDef definition, Map<?, ?> props, boolean doLog) {
+            super(definition, props, doLog);
+        }
+
+        public boolean isClusterHealthScope(){
+            return HEALTH_SCOPE_CLUSTER.equals(this.getString(HEALTH_SCOPE_CONFIG));
+        }
+
+        public List<String> getHealthTopics(){
+            return this.getList(HEALTH_TOPICS_CONFIG);
+        }
+
+        public boolean isAsyncHealthEvaluation(){
+            return this.getBoolean(HEALTH_ASYNC_CONFIG);
+        }
+
+        public int getCacheMaxTopics(){
+            return this.getInt(CACHE_MAX_TOPICS_CONFIG);
+        }
+
+        public long getCacheTopicIdleMs(){
+            return this.getLong(CACHE_TOPIC_IDLE_MS_CONFIG);
+        }
+
+        public boolean isMetricsEnabled(){
+            return this.getBoolean(METRICS_ENABLED_CONFIG);
+        }
+
+        public BrokerHealthSource getBrokerHealthSource(){
+            return this.getConfiguredInstance(HEALTH_SOURCE_CONFIG, BrokerHealthSource.class);
+        }
+
+        public boolean isHealthShared(){
+            return this.getBoolean(HEALTH_SHARED_CONFIG);
+        }
+
+        public ExclusionPolicy getExclusionPolicy(){
+            return this.getConfiguredInstance(EXCLUSION_POLICY_CONFIG, ExclusionPolicy.class);
+        }
+
+        public boolean isKeyed(){
+            return this.getBoolean(KEYED_CONFIG);
+        }
+
+        public long getStickyBatchBytes(){
+            return this.getLong(STICKY_BATCH_BYTES_CONFIG);
+        }
+
+        public boolean isRoundRobin(){
+            return this.getBoolean(ROUND_ROBIN_CONFIG);
+        }
+
+        public int getRoundRobinRecords(){
+            return this.getInt(ROUND_ROBIN_RECORDS_CONFIG);
+        }
+
+        /**
+         * @return The configured rack, falling back to client.rack, or null if neither is set
+         */
+        public String getClientRack(){
+            String rack = this.getString(CLIENT_RACK_CONFIG);
+            if (rack.isEmpty()) {
+                final Object clientRack = this.originals().get(CommonClientConfigs.CLIENT_RACK_CONFIG);
+                rack = clientRack == null ? "" : clientRack.toString().trim();
+            }
+            return rack.isEmpty() ? null : rack;
+        }
+
+        public int getRackMinLocalPartitions(){
+            return this.getInt(RACK_MIN_LOCAL_PARTITIONS_CONFIG);
+        }
+
+        public long getBrokerStickyMs(){
+            return this.getLong(BROKER_STICKY_MS_CONFIG);
+        }
+
+        public long getBrokerStickyBytes(){
+            return this.getLong(BROKER_STICKY_BYTES_CONFIG);
+        }
+
+        public boolean isLatencyWeighted(){
+            return this.getBoolean(LATENCY_WEIGHTED_CONFIG);
+        }
+
+        public long getLatencyRefreshMs(){
+            return this.getLong(LATENCY_REFRESH_MS_CONFIG);
+        }
+
+        public double getLatencyMinWeight(){
+            return this.getDouble(LATENCY_MIN_WEIGHT_CONFIG);
+        }
+
+        public double getLoadMaxShareFactor(){
+            return this.getDouble(LOAD_MAX_SHARE_FACTOR_CONFIG);
+        }
+
+        public int getReadmitMinInSyncSnapshots(){
+            return this.getInt(READMIT_MIN_INSYNC_SNAPSHOTS_CONFIG);
+        }
+
+        public long getReadmitMinInSyncMs(){
+            return this.getLong(READMIT_MIN_INSYNC_MS_CONFIG);
+        }
+
+        public long getReadmitRampUpMs(){
+            return this.getLong(READMIT_RAMPUP_MS_CONFIG);
+        }
+
+        public List<HealthTransitionListener> getHealthListeners(){
+            return this.getConfiguredInstances(HEALTH_LISTENERS_CONFIG, HealthTransitionListener.class);
+        }
+
+        public String getClientId(){
+            final Object clientId = this.originals().get(CommonClientConfigs.CLIENT_ID_CONFIG);
+            return clientId == null ? "" : clientId.toString();
+        }
+    }
 }
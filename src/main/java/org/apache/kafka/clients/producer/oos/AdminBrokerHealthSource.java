@@ -0,0 +1,354 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.LogDirDescription;
+import org.apache.kafka.clients.admin.ReplicaInfo;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.utils.KafkaThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link BrokerHealthSource} that polls the Brokers with an {@link Admin} client on its own schedule, 
+ * instead of waiting for the producer to refresh its metadata. 
+ * A Broker is excluded when one of its replicas of the topics is out of the ISR as last described by the Brokers, 
+ * or when configured, when one of its replicas' logs is more than a number of bytes smaller than the leader's. 
+ * Topics that haven't been described yet fall back to the ISR in the producer's metadata.
+ * Each topic is described independently, so a topic that fails to be described keeps its last known health without holding back the others, 
+ * and a topic that no longer exists, i.e. as it was deleted, falls back to the producer's metadata.
+ * 
+ * The Admin client is configured from the producer's connection configs, 
+ * overridden by any configs prefixed with {@link Config#ADMIN_CLIENT_PREFIX}.
+ */
+public class AdminBrokerHealthSource implements BrokerHealthSource {
+    private static final Logger LOG = LoggerFactory.getLogger(AdminBrokerHealthSource.class);
+    static final String THREAD_NAME = "kafka-oos-health-poller";
+
+    /** Topics to poll, along with the Cluster instance they were last requested for. */
+    private final ConcurrentMap<String, Cluster> topics = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Map<String, BitSet> polled = Collections.emptyMap();
+    private volatile Cluster lastCluster;
+    private Admin admin;
+    private ScheduledExecutorService executor;
+    private long timeoutMs;
+    private long maxLagBytes;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        final Config config = new Config(configs);
+        timeoutMs = config.getTimeoutMs();
+        maxLagBytes = config.getMaxLagBytes();
+        admin = this.createAdmin(config.getAdminConfigs());
+
+        final long pollMs = config.getPollMs();
+        LOG.info("Polling Broker health every `{}`ms MaxLagBytes=`{}`", pollMs, maxLagBytes);
+        executor = Executors.newSingleThreadScheduledExecutor(r -> KafkaThread.daemon(THREAD_NAME, r));
+        executor.scheduleWithFixedDelay(this::poll, pollMs, pollMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param adminConfigs Configs of the Admin client
+     * @return Admin client used to poll the Brokers
+     */
+    protected Admin createAdmin(Map<String, Object> adminConfigs) {
+        return Admin.create(adminConfigs);
+    }
+
+    @Override
+    public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+        lastCluster = cluster;
+        boolean added = false;
+        for (String topic : topics) {
+            added |= this.topics.put(topic, cluster) == null;
+        }
+        if (added) {
+            // Don't wait a whole poll interval to find out about new topics
+            try {
+                executor.execute(this::poll);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Health poller is closed, skipping poll");
+            }
+        }
+
+        final BitSet unhealthy = new BitSet();
+        final Map<String, BitSet> current = polled;
+        List<String> notPolled = null;
+        for (String topic : topics) {
+            final BitSet nodes = current.get(topic);
+            if (nodes != null) {
+                unhealthy.or(nodes);
+            } else {
+                if (notPolled == null) {
+                    notPolled = new ArrayList<>();
+                }
+                notPolled.add(topic);
+            }
+        }
+        if (notPolled != null) {
+            unhealthy.or(BrokerHealth.compute(cluster, notPolled).outOfSyncNodes());
+        }
+        return unhealthy;
+    }
+
+    @Override
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stops polling the topic, its polled health being dropped on the next poll.
+     */
+    @Override
+    public void evictTopic(String topic) {
+        topics.remove(topic);
+    }
+
+    /**
+     * Describes the tracked topics, publishing the result and moving to a new generation if it has changed. 
+     * Topics that fail to be described keep their previous result, topics that no longer exist are dropped from the result.
+     */
+    void poll() {
+        // Stop tracking topics that are neither in the producer's metadata nor still being requested
+        final Cluster latest = lastCluster;
+        if (latest != null) {
+            topics.entrySet().removeIf(e -> e.getValue() != latest && !latest.topics().contains(e.getKey()));
+        }
+        final Set<String> names = new HashSet<>(topics.keySet());
+        if (names.isEmpty()) {
+            return;
+        }
+
+        try {
+            final Map<String, BitSet> previous = polled;
+            final Set<String> failed = new HashSet<>();
+            final Map<String, TopicDescription> descriptions = this.describeTopics(names, failed);
+            final Map<Integer, Map<TopicPartition, Long>> sizes = maxLagBytes > 0 ? this.replicaSizes(brokers(descriptions.values())) : null;
+
+            final Map<String, BitSet> next = new HashMap<>();
+            for (String topic : names) {
+                final TopicDescription description = descriptions.get(topic);
+                if (description == null) {
+                    if (failed.contains(topic) && previous.containsKey(topic)) {
+                        next.put(topic, previous.get(topic));
+                    }
+                    continue;
+                }
+                final BitSet nodes = new BitSet();
+                for (TopicPartitionInfo partition : description.partitions()) {
+                    final TopicPartition tp = new TopicPartition(description.name(), partition.partition());
+                    for (Node replica : partition.replicas()) {
+                        if (!partition.isr().contains(replica)) {
+                            nodes.set(replica.id());
+                        }
+                    }
+                    if (sizes != null && partition.leader() != null) {
+                        this.findLaggingReplicas(tp, partition, sizes, nodes);
+                    }
+                }
+                next.put(description.name(), nodes);
+            }
+
+            if (!next.equals(previous)) {
+                LOG.debug("Broker health changed: `{}`", next);
+                polled = next;
+                generation.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            LOG.warn("Failed to poll Broker health, keeping the last known health", e);
+        }
+    }
+
+    /**
+     * Describes each topic independently, so that one topic failing doesn't fail the others.
+     * 
+     * @param names Topics to describe
+     * @param failed Set to add the topics that failed to be described too, other than those that no longer exist
+     * @return Descriptions of the topics that were described
+     */
+    private Map<String, TopicDescription> describeTopics(Set<String> names, Set<String> failed) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        final Map<String, TopicDescription> descriptions = new HashMap<>();
+        for (Map.Entry<String, KafkaFuture<TopicDescription>> topic : topicFutures(admin.describeTopics(names)).entrySet()) {
+            try {
+                descriptions.put(topic.getKey(), topic.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UnknownTopicOrPartitionException) {
+                    LOG.debug("Topic `{}` doesn't exist, falling back to the producer's metadata", topic.getKey());
+                } else {
+                    LOG.warn("Failed to poll Broker health of topic `{}`, keeping its last known health", topic.getKey(), e.getCause());
+                    failed.add(topic.getKey());
+                }
+            } catch (TimeoutException e) {
+                failed.add(topic.getKey());
+                LOG.warn("Timed out polling Broker health of topic `{}`, keeping its last known health", topic.getKey());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * topicNameValues() replaces values() in newer clients but doesn't exist in the 2.x clients this is built against, 
+     * so the deprecated values() is used for both.
+     */
+    @SuppressWarnings("deprecation")
+    private static Map<String, KafkaFuture<TopicDescription>> topicFutures(DescribeTopicsResult result) {
+        return result.values();
+    }
+
+    private void findLaggingReplicas(TopicPartition tp, TopicPartitionInfo partition, Map<Integer, Map<TopicPartition, Long>> sizes, BitSet nodes) {
+        final Long leaderSize = sizes.getOrDefault(partition.leader().id(), Collections.emptyMap()).get(tp);
+        if (leaderSize == null) {
+            return;
+        }
+        for (Node replica : partition.replicas()) {
+            final Long size = sizes.getOrDefault(replica.id(), Collections.emptyMap()).get(tp);
+            if (size != null && leaderSize - size > maxLagBytes) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Found lagging replica: N={} T={} P={} Lag={}", replica, tp.topic(), tp.partition(), leaderSize - size);
+                }
+                nodes.set(replica.id());
+            }
+        }
+    }
+
+    private static Set<Integer> brokers(Collection<TopicDescription> descriptions) {
+        final Set<Integer> brokers = new HashSet<>();
+        for (TopicDescription description : descriptions) {
+            for (TopicPartitionInfo partition : description.partitions()) {
+                for (Node replica : partition.replicas()) {
+                    brokers.add(replica.id());
+                }
+            }
+        }
+        return brokers;
+    }
+
+    /**
+     * Size of every current, i.e. not future, replica's log on each of the Brokers. 
+     * Describing replicas' log dirs doesn't give their size, so this describes all the Brokers' log dirs, 
+     * including the replicas of topics that aren't polled.
+     * 
+     * @param brokers Broker Node IDs to describe
+     * @return Log size in bytes, per Broker, per partition
+     */
+    protected Map<Integer, Map<TopicPartition, Long>> replicaSizes(Collection<Integer> brokers) throws InterruptedException, ExecutionException, TimeoutException {
+        final Map<Integer, Map<String, LogDirDescription>> logDirs = admin.describeLogDirs(brokers).allDescriptions().get(timeoutMs, TimeUnit.MILLISECONDS);
+        final Map<Integer, Map<TopicPartition, Long>> sizes = new HashMap<>();
+        for (Map.Entry<Integer, Map<String, LogDirDescription>> broker : logDirs.entrySet()) {
+            final Map<TopicPartition, Long> brokerSizes = new HashMap<>();
+            for (LogDirDescription dir : broker.getValue().values()) {
+                if (dir.error() != null) {
+                    continue;
+                }
+                for (Map.Entry<TopicPartition, ReplicaInfo> replica : dir.replicaInfos().entrySet()) {
+                    if (!replica.getValue().isFuture()) {
+                        brokerSizes.merge(replica.getKey(), replica.getValue().size(), Long::sum);
+                    }
+                }
+            }
+            sizes.put(broker.getKey(), brokerSizes);
+        }
+        return sizes;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (admin != null) {
+            admin.close();
+        }
+    }
+
+    public static class Config extends AbstractConfig {
+        public static final String ADMIN_CLIENT_PREFIX = "partitioner.health.admin.client.";
+        public static final String POLL_MS_CONFIG = "partitioner.health.admin.poll.ms";
+        public static final String TIMEOUT_MS_CONFIG = "partitioner.health.admin.timeout.ms";
+        public static final String MAX_LAG_BYTES_CONFIG = "partitioner.health.admin.max.lag.bytes";
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(POLL_MS_CONFIG, Type.LONG, 10000L, Range.atLeast(1), Importance.MEDIUM, 
+                    "Interval to poll the Brokers for the ISR, and log sizes, of the topics")
+                .define(TIMEOUT_MS_CONFIG, Type.LONG, 5000L, Range.atLeast(1), Importance.LOW, 
+                    "Max time to wait for each Admin request when polling")
+                .define(MAX_LAG_BYTES_CONFIG, Type.LONG, 0L, Range.atLeast(0), Importance.MEDIUM, 
+                    "Exclude Brokers with a replica whose log is this many bytes smaller than its leader's, even while in the ISR. "
+                    + "As logs are deleted a segment at a time, this should be well above segment.bytes. "
+                    + "Each poll then describes the log dirs of every Broker hosting the topics, listing every replica of every topic on them, "
+                    + "which on large clusters is a heavy request to make every poll interval. Disabled with 0");
+        }
+
+        public Config(Map<?, ?> props) {
+            super(CONFIG, props, false);
+        }
+
+        public long getPollMs(){
+            return this.getLong(POLL_MS_CONFIG);
+        }
+
+        public long getTimeoutMs(){
+            return this.getLong(TIMEOUT_MS_CONFIG);
+        }
+
+        public long getMaxLagBytes(){
+            return this.getLong(MAX_LAG_BYTES_CONFIG);
+        }
+
+        /**
+         * @return The producer's configs known to the Admin client, overridden by the prefixed configs
+         */
+        public Map<String, Object> getAdminConfigs(){
+            final Map<String, Object> configs = new HashMap<>();
+            for (Map.Entry<String, Object> e : this.originals().entrySet()) {
+                if (AdminClientConfig.configNames().contains(e.getKey())) {
+                    configs.put(e.getKey(), e.getValue());
+                }
+            }
+            final Object clientId = configs.get(CommonClientConfigs.CLIENT_ID_CONFIG);
+            if (clientId != null) {
+                configs.put(CommonClientConfigs.CLIENT_ID_CONFIG, clientId + "-oos-health");
+            }
+            configs.putAll(this.originalsWithPrefix(ADMIN_CLIENT_PREFIX));
+            return configs;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Walker/Vose alias table, for sampling an index proportionally to its weight in O(1) time and without allocating. 
+ * Building the table is O(n) and is only done when the weights change.
+ */
+final class AliasTable {
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights Non negative relative weight of each index, at least one of them must be above 0
+     */
+    AliasTable(double[] weights) {
+        final int n = weights.length;
+        probability = new double[n];
+        alias = new int[n];
+
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        if (!(total > 0)) {
+            throw new IllegalArgumentException("At least one weight must be above 0");
+        }
+
+        // Scale so that the average weight is 1, then pair each under full slot with an over full one
+        final double[] scaled = new double[n];
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            final int s = small[--numSmall];
+            final int l = large[--numLarge];
+            probability[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1;
+            if (scaled[l] < 1) {
+                small[numSmall++] = l;
+            } else {
+                large[numLarge++] = l;
+            }
+        }
+        // Whatever is left is full, up to rounding errors
+        while (numLarge > 0) {
+            probability[large[--numLarge]] = 1;
+        }
+        while (numSmall > 0) {
+            probability[small[--numSmall]] = 1;
+        }
+    }
+
+    int size() {
+        return probability.length;
+    }
+
+    /**
+     * @return Index picked proportionally to its weight
+     */
+    int sample(ThreadLocalRandom random) {
+        final int i = random.nextInt(probability.length);
+        return random.nextDouble() < probability[i] ? i : alias[i];
+    }
+}
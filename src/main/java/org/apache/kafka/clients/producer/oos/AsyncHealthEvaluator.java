@@ -0,0 +1,68 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.KafkaThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs health evaluations on a single background thread, off of the producer's send path.
+ * Evaluations are de-duplicated so that each new Cluster metadata instance, and health source generation, is only scheduled once, 
+ * unless the evaluation fails, in which case it's scheduled again on the next request.
+ */
+final class AsyncHealthEvaluator implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncHealthEvaluator.class);
+    static final String THREAD_NAME = "kafka-oos-health-evaluator";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> KafkaThread.daemon(THREAD_NAME, r));
+    private final AtomicReference<Scheduled> scheduled = new AtomicReference<>();
+
+    /**
+     * Schedules the evaluation unless one has already been scheduled for the same Cluster instance and generation.
+     * 
+     * @param cluster Cluster Metadata state being evaluated
+     * @param generation Generation of the Broker health source being evaluated
+     * @param evaluation Task computing and publishing the new health snapshot
+     */
+    void schedule(Cluster cluster, long generation, Runnable evaluation) {
+        final Scheduled prev = scheduled.get();
+        final Scheduled next = new Scheduled(cluster, generation);
+        if ((prev != null && prev.cluster == cluster && prev.generation == generation) 
+            || !scheduled.compareAndSet(prev, next)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    evaluation.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to evaluate health for new Cluster metadata, retrying on next use", e);
+                    scheduled.compareAndSet(next, null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Health evaluator is closed, skipping evaluation");
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class Scheduled {
+        private final Cluster cluster;
+        private final long generation;
+
+        private Scheduled(Cluster cluster, long generation) {
+            this.cluster = cluster;
+            this.generation = generation;
+        }
+    }
+}
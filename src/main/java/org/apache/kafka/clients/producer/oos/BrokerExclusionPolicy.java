@@ -0,0 +1,16 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * Default {@link ExclusionPolicy}, excluding every partition led by a Broker that the {@link BrokerHealthSource} reports unhealthy.
+ */
+public class BrokerExclusionPolicy implements ExclusionPolicy {
+    @Override
+    public BitSet excludedNodes(Cluster cluster, Collection<String> topics, BitSet unhealthyNodes) {
+        return unhealthyNodes;
+    }
+}
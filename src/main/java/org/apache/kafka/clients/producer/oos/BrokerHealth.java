@@ -0,0 +1,70 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable index of which brokers host out of sync replicas, built from a set of topics in a single Cluster metadata instance.
+ */
+final class BrokerHealth {
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerHealth.class);
+
+    private final BitSet outOfSyncNodes;
+
+    /**
+     * @param outOfSyncNodes Node IDs reported unhealthy by a {@link BrokerHealthSource}
+     */
+    BrokerHealth(BitSet outOfSyncNodes) {
+        this.outOfSyncNodes = outOfSyncNodes;
+    }
+
+    /**
+     * Scans every available partition of the given topics looking for replicas that are not in the ISR.
+     * 
+     * @param cluster Cluster Metadata state
+     * @param topics Topics to evaluate
+     * @return Health of every broker hosting a replica of the topics
+     */
+    static BrokerHealth compute(Cluster cluster, Collection<String> topics) {
+        final BitSet nodesOutOfSync = new BitSet();
+
+        //Find node that have out of sync partitions
+        for (String topic : topics) {
+            final List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+            for (PartitionInfo i : availablePartitions) {
+                final Node[] isr = i.inSyncReplicas();
+                for (Node n : i.replicas()) {
+                    boolean found = false;
+                    for (Node iNode : isr) {
+                        if (iNode.id() == n.id()) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Found Broker Node with out of sync replica: N={} T={} P={}", n, topic, i.partition());
+                        }
+                        nodesOutOfSync.set(n.id());
+                    }
+                }
+            }
+        }
+
+        return new BrokerHealth(nodesOutOfSync);
+    }
+
+    /**
+     * @return Bitmap of the Node IDs that host at least one out of sync replica
+     */
+    BitSet outOfSyncNodes() {
+        return outOfSyncNodes;
+    }
+}
@@ -0,0 +1,50 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.Closeable;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+
+/**
+ * Source of which Brokers to exclude from being published too, consulted by the partition caches through 
+ * {@link AbstractOutOfSyncRedirectPartitionCache.Config#HEALTH_SOURCE_CONFIG}. 
+ * 
+ * Results are cached per Cluster metadata instance and only looked up again once the metadata is refreshed, 
+ * or once the source's {@link #generation()} changes.
+ */
+public interface BrokerHealthSource extends Configurable, Closeable {
+    /**
+     * @param cluster Cluster Metadata state
+     * @param topics Topics to evaluate
+     * @return Bitmap of the Node IDs to exclude
+     */
+    BitSet unhealthyNodes(Cluster cluster, Collection<String> topics);
+
+    /**
+     * @return Number that changes whenever the health reported for the same Cluster instance may have changed, 
+     *         so that cached health gets recomputed. Sources only looking at the Cluster metadata can keep the default.
+     */
+    default long generation() {
+        return 0;
+    }
+
+    /**
+     * Called when a partition cache evicts a topic, so that any state kept for it can be dropped. 
+     * The topic can still be evaluated again later, e.g. by another partitioner sharing the source.
+     * 
+     * @param topic Evicted topic
+     */
+    default void evictTopic(String topic) {
+    }
+
+    @Override
+    default void configure(Map<String, ?> configs) {
+    }
+
+    @Override
+    default void close() {
+    }
+}
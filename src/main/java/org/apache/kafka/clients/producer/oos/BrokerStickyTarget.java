@@ -0,0 +1,97 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.common.utils.Time;
+
+/**
+ * Broker that all topics' sticky partitions are picked from for a time and/or byte window, 
+ * so that batches of different topics end up in the same produce request to that Broker.
+ */
+final class BrokerStickyTarget {
+    private final Time time;
+    private final long windowMs;
+    private final long windowBytes;
+    private final AtomicLong producedBytes = new AtomicLong();
+    private final AtomicReference<Target> target = new AtomicReference<>();
+
+    /**
+     * @param time Clock the time window is measured with
+     * @param windowMs Time to stay on a Broker, or 0 for no time limit
+     * @param windowBytes Bytes to send to a Broker before moving to another, or 0 for no byte limit
+     */
+    BrokerStickyTarget(Time time, long windowMs, long windowBytes) {
+        this.time = time;
+        this.windowMs = windowMs;
+        this.windowBytes = windowBytes;
+    }
+
+    /**
+     * Counts bytes produced towards the byte window, ending the window once it is used up.
+     */
+    void produced(int bytes) {
+        if (windowBytes > 0) {
+            final long total = producedBytes.addAndGet(bytes);
+            if (total >= windowBytes && total - bytes < windowBytes) {
+                producedBytes.set(0);
+                target.set(null);
+            }
+        }
+    }
+
+    /**
+     * Picks a new partition for a topic out of the ones led by the target Broker. 
+     * Once the window has ended a new target is picked, weighted the same way partitions are, out of the leaders of this topic. 
+     * Topics with no eligible partition on the target Broker pick from all eligible partitions as usual.
+     * 
+     * @param health Eligible partitions for the topic
+     * @param currentPartition Partition currently being published too or -1
+     * @param latencyWeights Weight of the partitions' leaders, or null
+     * @return New partition ID
+     */
+    int nextPartition(TopicHealth health, int currentPartition, NodeLatencies.Weights latencyWeights) {
+        Target t = target.get();
+        if (t == null || (windowMs > 0 && time.milliseconds() >= t.untilMs)) {
+            final int leader = health.nextLeader(latencyWeights);
+            if (leader < 0) {
+                return health.nextPartition(currentPartition, latencyWeights);
+            }
+            final Target next = new Target(leader, windowMs > 0 ? time.milliseconds() + windowMs : Long.MAX_VALUE);
+            // Another topic may have already moved to a new target, in which case this one follows it
+            if (target.compareAndSet(t, next)) {
+                t = next;
+            } else {
+                t = target.get();
+                if (t == null) {
+                    t = next;
+                }
+            }
+        }
+
+        final int[] led = health.partitionsLedBy(t.nodeId);
+        if (led == null) {
+            return health.nextPartition(currentPartition, latencyWeights);
+        } else if (led.length == 1) {
+            return led[0];
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            final int newPart = led[random.nextInt(led.length)];
+            if (newPart != currentPartition) {
+                return newPart;
+            }
+        }
+    }
+
+    private static final class Target {
+        private final int nodeId;
+        private final long untilMs;
+
+        private Target(int nodeId, long untilMs) {
+            this.nodeId = nodeId;
+            this.untilMs = untilMs;
+        }
+    }
+}
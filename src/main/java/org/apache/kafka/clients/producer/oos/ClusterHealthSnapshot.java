@@ -0,0 +1,168 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * Memo of the computed {@link TopicHealth} per topic for a single {@link Cluster} metadata instance.
+ * The producer only hands out a new Cluster instance when metadata is refreshed,
+ * so the instance identity, along with the {@link BrokerHealthSource#generation()}, is used as the version of the snapshot.
+ * 
+ * Computations are single-flight, concurrent callers for the same topic wait for and reuse the result of the first caller.
+ */
+final class ClusterHealthSnapshot {
+    static final ClusterHealthSnapshot EMPTY = new ClusterHealthSnapshot(null);
+
+    private final Cluster cluster;
+    private final long generation;
+    private final ConcurrentMap<String, TopicHealth> topics = new ConcurrentHashMap<>();
+    /** Health of the snapshot this one replaces, only the topics and not the snapshot so that snapshots don't chain. */
+    private final Map<String, TopicHealth> previous;
+    private final ConcurrentMap<String, CompletableFuture<TopicHealth>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<BrokerHealth>> brokerHealth = new AtomicReference<>();
+
+    ClusterHealthSnapshot(Cluster cluster) {
+        this(cluster, 0);
+    }
+
+    ClusterHealthSnapshot(Cluster cluster, long generation) {
+        this(cluster, generation, null);
+    }
+
+    /**
+     * @param previous Snapshot this one replaces, whose health can be reused when unchanged, or null
+     */
+    ClusterHealthSnapshot(Cluster cluster, long generation, ClusterHealthSnapshot previous) {
+        this.cluster = cluster;
+        this.generation = generation;
+        this.previous = previous == null ? Collections.emptyMap() : previous.topics;
+    }
+
+    /**
+     * @param cluster Cluster Metadata state
+     * @param generation Generation of the Broker health source
+     * @return True if this snapshot was computed from the exact same Cluster instance and health source generation
+     */
+    boolean isFor(Cluster cluster, long generation) {
+        return this.cluster == cluster && this.generation == generation;
+    }
+
+    /**
+     * @param snapshot Snapshot to compare to
+     * @return True if this snapshot was created to replace the given one
+     */
+    boolean replaces(ClusterHealthSnapshot snapshot) {
+        return previous == snapshot.topics;
+    }
+
+    Cluster cluster() {
+        return cluster;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    Set<String> topics() {
+        return topics.keySet();
+    }
+
+    TopicHealth get(String topic) {
+        return topics.get(topic);
+    }
+
+    /**
+     * @param topic Topic to Partition against
+     * @return Health of the topic in the snapshot this one replaced, or null
+     */
+    TopicHealth previous(String topic) {
+        return previous.get(topic);
+    }
+
+    void put(String topic, TopicHealth health) {
+        topics.put(topic, health);
+    }
+
+    void remove(String topic) {
+        topics.remove(topic);
+    }
+
+    void putIfAbsent(String topic, TopicHealth health) {
+        topics.putIfAbsent(topic, health);
+    }
+
+    /**
+     * Returns the health of the topic, computing it if needed. 
+     * Only one caller computes the health of a topic, any concurrent callers block until it is available.
+     * 
+     * @param topic Topic to Partition against
+     * @param compute Computes the health of the topic
+     * @return Health of the topic
+     */
+    TopicHealth computeIfAbsent(String topic, Function<String, TopicHealth> compute) {
+        TopicHealth health = topics.get(topic);
+        if (health != null) {
+            return health;
+        }
+
+        final CompletableFuture<TopicHealth> flight = new CompletableFuture<>();
+        final CompletableFuture<TopicHealth> existing = inFlight.putIfAbsent(topic, flight);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            // Re-check as a previous flight may have finished between the first lookup and claiming this flight
+            health = topics.get(topic);
+            if (health == null) {
+                health = compute.apply(topic);
+                topics.putIfAbsent(topic, health);
+            }
+            flight.complete(health);
+            return health;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(topic, flight);
+        }
+    }
+
+    /**
+     * Returns the broker health shared by every topic, computing it if needed. 
+     * Only one caller computes it, any concurrent callers block until it is available.
+     * 
+     * @param compute Computes the broker health
+     * @return Shared broker health
+     */
+    BrokerHealth brokerHealth(Supplier<BrokerHealth> compute) {
+        while (true) {
+            final CompletableFuture<BrokerHealth> flight = brokerHealth.get();
+            if (flight != null) {
+                return flight.join();
+            }
+
+            final CompletableFuture<BrokerHealth> claimed = new CompletableFuture<>();
+            if (brokerHealth.compareAndSet(null, claimed)) {
+                try {
+                    final BrokerHealth health = compute.get();
+                    claimed.complete(health);
+                    return health;
+                } catch (RuntimeException e) {
+                    // Allow a later caller to retry
+                    brokerHealth.compareAndSet(claimed, null);
+                    claimed.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+    }
+}
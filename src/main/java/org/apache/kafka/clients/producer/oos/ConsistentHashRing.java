@@ -0,0 +1,64 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Consistent hash ring over a set of partitions. 
+ * Each partition is placed on the ring a number of times, so that when a partition is removed 
+ * the keys that hashed to it are spread over the remaining partitions instead of all moving to a single one,
+ * and keys hashing to other partitions don't move at all.
+ */
+final class ConsistentHashRing {
+    /** Max total number of points on the ring, bounding the memory used for topics with many partitions. */
+    static final int MAX_POINTS = 1 << 16;
+    static final int MAX_POINTS_PER_PARTITION = 64;
+
+    private final long[] points;
+
+    /**
+     * @param partitions Partitions to place on the ring
+     */
+    ConsistentHashRing(int[] partitions) {
+        final int perPartition = partitions.length < 1 ? 0 : Math.max(1, Math.min(MAX_POINTS_PER_PARTITION, MAX_POINTS / partitions.length));
+        final ByteBuffer buf = ByteBuffer.allocate(8);
+        points = new long[partitions.length * perPartition];
+        int i = 0;
+        for (int partition : partitions) {
+            for (int replica = 0; replica < perPartition; replica++) {
+                buf.clear();
+                buf.putInt(partition).putInt(replica);
+                // Upper 32 bits hold the position so that sorting orders by position, lower 32 hold the partition
+                points[i++] = ((long) Utils.murmur2(buf.array()) << 32) | (partition & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(points);
+    }
+
+    /**
+     * @param hash Hash of the key
+     * @return Partition owning the first point on the ring at or after the hash
+     */
+    int partition(int hash) {
+        int lo = 0;
+        int hi = points.length - 1;
+        if (hi < 0) {
+            throw new IllegalStateException("Ring has no partitions");
+        }
+        if (hash > (int) (points[hi] >> 32)) {
+            // Wrap around
+            return (int) points[0];
+        }
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if ((int) (points[mid] >> 32) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return (int) points[lo];
+    }
+}
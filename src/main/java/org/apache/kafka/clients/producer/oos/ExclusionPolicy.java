@@ -0,0 +1,60 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.PartitionInfo;
+
+/**
+ * Decides how much of the write capacity to steer away from, given the Brokers a {@link BrokerHealthSource} reports unhealthy. 
+ * Configured through {@link AbstractOutOfSyncRedirectPartitionCache.Config#EXCLUSION_POLICY_CONFIG}.
+ * 
+ * Every partition led by an excluded Broker is excluded, and any other partition can be excluded on its own. 
+ * Readmission damping and ramping only apply to excluded Brokers.
+ */
+public interface ExclusionPolicy extends Configurable {
+    /**
+     * Called once per health evaluation, i.e. once per topic or once per snapshot when health is shared by all topics.
+     * 
+     * @param cluster Cluster Metadata state
+     * @param topics Topics the unhealthy Brokers were evaluated from
+     * @param unhealthyNodes Node IDs reported by the health source, which must not be modified
+     * @return Bitmap of the Node IDs whose partitions are all excluded
+     */
+    BitSet excludedNodes(Cluster cluster, Collection<String> topics, BitSet unhealthyNodes);
+
+    /**
+     * Called for every available partition of the topic being published too whose leader isn't excluded, 
+     * when {@link #excludesPartitions()} is true. 
+     * Must only depend on the partition's leader, replicas and ISR, as the result is reused across metadata refreshes while they are unchanged.
+     * 
+     * @param partition Partition to evaluate
+     * @return Whether to exclude the partition anyway
+     */
+    default boolean isExcluded(PartitionInfo partition) {
+        return false;
+    }
+
+    /**
+     * @return Whether {@link #isExcluded(PartitionInfo)} can exclude partitions, so that it isn't called needlessly 
+     *         and so that changes to the partitions' replicas and ISR are looked for
+     */
+    default boolean excludesPartitions() {
+        return false;
+    }
+
+    /**
+     * Called when the partition cache evicts a topic, so that any state kept for it can be dropped.
+     * 
+     * @param topic Evicted topic
+     */
+    default void evictTopic(String topic) {
+    }
+
+    @Override
+    default void configure(Map<String, ?> configs) {
+    }
+}
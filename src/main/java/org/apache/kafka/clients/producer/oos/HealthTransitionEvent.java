@@ -0,0 +1,92 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Diff of a topic's health between two Cluster metadata snapshots.
+ */
+public final class HealthTransitionEvent {
+    private final String topic;
+    private final long timestampMs;
+    private final Set<Integer> excludedBrokers;
+    private final Set<Integer> readmittedBrokers;
+    private final Set<Integer> excludedPartitions;
+    private final Set<Integer> readmittedPartitions;
+    private final int eligiblePartitions;
+    private final int totalPartitions;
+
+    public HealthTransitionEvent(String topic, long timestampMs, 
+            Set<Integer> excludedBrokers, Set<Integer> readmittedBrokers, 
+            Set<Integer> excludedPartitions, Set<Integer> readmittedPartitions, 
+            int eligiblePartitions, int totalPartitions) {
+        this.topic = topic;
+        this.timestampMs = timestampMs;
+        this.excludedBrokers = Collections.unmodifiableSet(excludedBrokers);
+        this.readmittedBrokers = Collections.unmodifiableSet(readmittedBrokers);
+        this.excludedPartitions = Collections.unmodifiableSet(excludedPartitions);
+        this.readmittedPartitions = Collections.unmodifiableSet(readmittedPartitions);
+        this.eligiblePartitions = eligiblePartitions;
+        this.totalPartitions = totalPartitions;
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    /**
+     * @return When the transition was detected
+     */
+    public long timestampMs() {
+        return timestampMs;
+    }
+
+    /**
+     * @return Broker Node IDs that are newly excluded from being published too
+     */
+    public Set<Integer> excludedBrokers() {
+        return excludedBrokers;
+    }
+
+    /**
+     * @return Broker Node IDs that were excluded and no longer are
+     */
+    public Set<Integer> readmittedBrokers() {
+        return readmittedBrokers;
+    }
+
+    /**
+     * @return Partition IDs that are newly excluded from being published too
+     */
+    public Set<Integer> excludedPartitions() {
+        return excludedPartitions;
+    }
+
+    /**
+     * @return Partition IDs that were excluded and no longer are
+     */
+    public Set<Integer> readmittedPartitions() {
+        return readmittedPartitions;
+    }
+
+    /**
+     * @return Number of partitions eligible to be published too after the transition
+     */
+    public int eligiblePartitions() {
+        return eligiblePartitions;
+    }
+
+    public int totalPartitions() {
+        return totalPartitions;
+    }
+
+    @Override
+    public String toString() {
+        return "HealthTransitionEvent(topic=" + topic 
+            + ", excludedBrokers=" + excludedBrokers 
+            + ", readmittedBrokers=" + readmittedBrokers 
+            + ", excludedPartitions=" + excludedPartitions 
+            + ", readmittedPartitions=" + readmittedPartitions 
+            + ", eligiblePartitions=" + eligiblePartitions + "/" + totalPartitions + ")";
+    }
+}
@@ -0,0 +1,22 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.Closeable;
+
+/**
+ * Notified when brokers or partitions of a topic enter or leave the excluded set between Cluster metadata snapshots.
+ * Implementations that also implement {@link org.apache.kafka.common.Configurable} are configured with the partitioner's configs.
+ * 
+ * Events are delivered on the thread that computed the new health, which can be the producer's send path, 
+ * so implementations should return quickly.
+ * 
+ * @see LoggingHealthTransitionListener
+ */
+public interface HealthTransitionListener extends Closeable {
+    /**
+     * @param event What changed for the topic since the previous Cluster metadata snapshot
+     */
+    void onHealthTransition(HealthTransitionEvent event);
+
+    @Override
+    default void close() {}
+}
@@ -0,0 +1,88 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Diffs each newly computed {@link TopicHealth} against the last one for the same topic 
+ * and notifies the listeners only when something entered or left the excluded set.
+ */
+final class HealthTransitionNotifier {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthTransitionNotifier.class);
+
+    private final List<HealthTransitionListener> listeners;
+    private final Time time;
+    private final ConcurrentMap<String, TopicHealth> last = new ConcurrentHashMap<>();
+
+    HealthTransitionNotifier(List<HealthTransitionListener> listeners, Time time) {
+        this.listeners = listeners;
+        this.time = time;
+    }
+
+    /**
+     * @param topic Topic the health was computed for
+     * @param health Newly computed health
+     */
+    void onComputed(String topic, TopicHealth health) {
+        final TopicHealth previous = last.put(topic, health);
+        if (listeners.isEmpty() || previous == health) {
+            return;
+        }
+
+        final BitSet prevNodes = previous == null ? new BitSet() : previous.excludedNodes();
+        final BitSet nextNodes = health.excludedNodes();
+        // With no previous health every partition is treated as having been eligible
+        final BitSet prevPartitions = previous == null ? health.allPartitions() : previous.eligibleSet();
+        final BitSet nextPartitions = health.eligibleSet();
+        if (prevNodes.equals(nextNodes) && prevPartitions.equals(nextPartitions)) {
+            return;
+        }
+
+        final HealthTransitionEvent event = new HealthTransitionEvent(topic, time.milliseconds(), 
+            andNot(nextNodes, prevNodes), andNot(prevNodes, nextNodes), 
+            andNot(prevPartitions, nextPartitions), andNot(nextPartitions, prevPartitions), 
+            health.numEligible(), health.numPartitions());
+        for (HealthTransitionListener l : listeners) {
+            try {
+                l.onHealthTransition(event);
+            } catch (RuntimeException e) {
+                LOG.error("Health transition listener `{}` failed", l.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Forgets the last health of a topic, i.e. once it is evicted
+     */
+    void removeTopic(String topic) {
+        last.remove(topic);
+    }
+
+    void close() {
+        for (HealthTransitionListener l : listeners) {
+            try {
+                l.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to close health transition listener `{}`", l.getClass().getName(), e);
+            }
+        }
+    }
+
+    private static Set<Integer> andNot(BitSet a, BitSet b) {
+        final BitSet diff = (BitSet) a.clone();
+        diff.andNot(b);
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = diff.nextSetBit(0); i >= 0; i = diff.nextSetBit(i + 1)) {
+            ids.add(i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,45 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * Default {@link BrokerHealthSource}, excluding every Broker that hosts a replica of the topics that isn't in its partition's ISR 
+ * according to the producer's Cluster metadata. How quickly changes are seen is bound by metadata.max.age.ms.
+ * 
+ * The replica state of each topic is kept between metadata refreshes, so that a refresh only patches the lagging counts of the partitions 
+ * whose replicas or ISR changed, although every partition is still read once to find them. See {@link TopicReplicaState}.
+ */
+public class IsrBrokerHealthSource implements BrokerHealthSource {
+    private final TopicReplicaStates states = new TopicReplicaStates();
+
+    @Override
+    public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+        final BitSet unhealthy = new BitSet();
+        for (String topic : topics) {
+            final TopicReplicaState state = states.get(cluster, topic);
+            if (state == null) {
+                continue;
+            }
+            synchronized (state) {
+                state.update(cluster);
+                state.addOutOfSyncNodes(unhealthy);
+            }
+        }
+        return unhealthy;
+    }
+
+    @Override
+    public void evictTopic(String topic) {
+        states.remove(topic);
+    }
+
+    /**
+     * @return Number of topics whose replica state is kept
+     */
+    public int getTrackedTopicCount() {
+        return states.size();
+    }
+}
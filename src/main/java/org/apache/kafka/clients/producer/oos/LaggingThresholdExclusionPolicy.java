@@ -0,0 +1,89 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExclusionPolicy} that only excludes an unhealthy Broker once the number of its replicas of the evaluated topics 
+ * that are out of the ISR, in the producer's metadata, reaches a threshold. 
+ * A single lagging replica is then tolerated, while a Broker that is falling behind on many partitions is still steered away from. 
+ * 
+ * The lagging counts are kept per topic between metadata refreshes, so that a refresh only re-counts the partitions whose replicas or ISR changed. 
+ * See {@link TopicReplicaState}.
+ */
+public class LaggingThresholdExclusionPolicy implements ExclusionPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(LaggingThresholdExclusionPolicy.class);
+
+    private final TopicReplicaStates states = new TopicReplicaStates();
+    private int threshold = 2;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        threshold = new Config(configs).getThreshold();
+        LOG.info("Excluding Brokers with at least `{}` lagging replicas", threshold);
+    }
+
+    @Override
+    public BitSet excludedNodes(Cluster cluster, Collection<String> topics, BitSet unhealthyNodes) {
+        if (unhealthyNodes.isEmpty()) {
+            return unhealthyNodes;
+        }
+        final int[] nodes = unhealthyNodes.stream().toArray();
+        final int[] lagging = new int[nodes.length];
+        for (String topic : topics) {
+            final TopicReplicaState state = states.get(cluster, topic);
+            if (state == null) {
+                continue;
+            }
+            synchronized (state) {
+                state.update(cluster);
+                for (int i = 0; i < nodes.length; i++) {
+                    lagging[i] += state.laggingReplicas(nodes[i]);
+                }
+            }
+        }
+
+        final BitSet excluded = new BitSet();
+        for (int i = 0; i < nodes.length; i++) {
+            if (lagging[i] >= threshold) {
+                excluded.set(nodes[i]);
+            }
+        }
+        return excluded;
+    }
+
+    @Override
+    public void evictTopic(String topic) {
+        states.remove(topic);
+    }
+
+    public static class Config extends AbstractConfig {
+        public static final String THRESHOLD_CONFIG = "partitioner.exclusion.lagging.threshold";
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(THRESHOLD_CONFIG, Type.INT, 2, Range.atLeast(1), Importance.MEDIUM, 
+                    "Number of a Broker's replicas that must be out of the ISR before it is excluded, "
+                    + "counted across the topics its health is evaluated from");
+        }
+
+        public Config(Map<?, ?> props) {
+            super(CONFIG, props, false);
+        }
+
+        public int getThreshold(){
+            return this.getInt(THRESHOLD_CONFIG);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.common.PartitionInfo;
+
+/**
+ * Caps the share of a topic's traffic each remaining Broker receives once others are excluded, to a multiple of its fair share, 
+ * i.e. its share of the topic's available partitions. Without it excluding 1 of 3 Brokers moves 50% more traffic onto each of the other 2, 
+ * which can push them out of sync as well and cascade until every Broker is excluded.
+ * 
+ * Traffic above the cap is spilled onto the partitions of the excluded, suspect, Brokers. As every remaining Broker gets at least its fair share, 
+ * each suspect partition gets less than its own fair share.
+ */
+final class LoadSpreadingCap {
+    private final double maxShareFactor;
+
+    /**
+     * @param maxShareFactor Max share of traffic of a remaining Broker as a multiple of its fair share, at least 1
+     */
+    LoadSpreadingCap(double maxShareFactor) {
+        this.maxShareFactor = maxShareFactor;
+    }
+
+    /**
+     * Scales down the weights of the eligible partitions of Brokers over their cap.
+     * 
+     * @param available Available partitions of the topic, eligible or not
+     * @param count Number of eligible partitions
+     * @param leaders Leader Node ID of each eligible partition
+     * @param weights Weight of each eligible partition, scaled in place
+     * @return Share of the topic's traffic to spill onto the excluded partitions, 0 when no Broker is over its cap
+     */
+    double apply(List<PartitionInfo> available, int count, int[] leaders, double[] weights) {
+        if (count == 0 || count == available.size()) {
+            return 0;
+        }
+
+        final Map<Integer, Integer> fair = new HashMap<>();
+        for (PartitionInfo p : available) {
+            fair.merge(p.leader().id(), 1, Integer::sum);
+        }
+        final Map<Integer, Double> load = new HashMap<>();
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            load.merge(leaders[i], weights[i], Double::sum);
+            total += weights[i];
+        }
+
+        double kept = 0;
+        final Map<Integer, Double> scales = new HashMap<>();
+        for (Map.Entry<Integer, Double> broker : load.entrySet()) {
+            final double share = broker.getValue() / total;
+            final double cap = maxShareFactor * fair.get(broker.getKey()) / available.size();
+            if (share > cap) {
+                scales.put(broker.getKey(), cap / share);
+                kept += cap;
+            } else {
+                kept += share;
+            }
+        }
+        if (scales.isEmpty()) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            final Double scale = scales.get(leaders[i]);
+            if (scale != null) {
+                weights[i] *= scale;
+            }
+        }
+        return Math.max(0, 1 - kept);
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Map;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default {@link HealthTransitionListener} that logs each transition, 
+ * rate limited to a max number of lines per interval. 
+ * Transitions that get suppressed are counted and reported on the next line that is logged.
+ */
+public class LoggingHealthTransitionListener implements HealthTransitionListener, Configurable {
+    private static final Logger LOG = LoggerFactory.getLogger(LoggingHealthTransitionListener.class);
+
+    private final Time time;
+    private long intervalMs = Config.DEFAULT_INTERVAL_MS;
+    private int maxEvents = Config.DEFAULT_MAX_EVENTS;
+
+    private long intervalStartMs;
+    private int logged;
+    private int suppressed;
+
+    public LoggingHealthTransitionListener() {
+        this(Time.SYSTEM);
+    }
+
+    LoggingHealthTransitionListener(Time time) {
+        this.time = time;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Config cnf = new Config(configs, false);
+        intervalMs = cnf.getLong(Config.INTERVAL_MS_CONFIG);
+        maxEvents = cnf.getInt(Config.MAX_EVENTS_CONFIG);
+    }
+
+    @Override
+    public void onHealthTransition(HealthTransitionEvent event) {
+        final int suppressedSince;
+        synchronized (this) {
+            final long now = time.milliseconds();
+            if (now - intervalStartMs >= intervalMs) {
+                intervalStartMs = now;
+                logged = 0;
+            }
+            if (logged >= maxEvents) {
+                suppressed++;
+                return;
+            }
+            logged++;
+            suppressedSince = suppressed;
+            suppressed = 0;
+        }
+
+        if (!event.excludedBrokers().isEmpty() || !event.excludedPartitions().isEmpty()) {
+            LOG.warn("Excluding out of sync Brokers/Partitions: T=`{}` ExcludedBrokers=`{}` ExcludedPartitions=`{}` ReadmittedBrokers=`{}` ReadmittedPartitions=`{}` Eligible=`{}/{}` Suppressed=`{}`", 
+                event.topic(), event.excludedBrokers(), event.excludedPartitions(), event.readmittedBrokers(), event.readmittedPartitions(), 
+                event.eligiblePartitions(), event.totalPartitions(), suppressedSince);
+        } else {
+            LOG.info("Readmitting in sync Brokers/Partitions: T=`{}` ReadmittedBrokers=`{}` ReadmittedPartitions=`{}` Eligible=`{}/{}` Suppressed=`{}`", 
+                event.topic(), event.readmittedBrokers(), event.readmittedPartitions(), 
+                event.eligiblePartitions(), event.totalPartitions(), suppressedSince);
+        }
+    }
+
+    public static class Config extends AbstractConfig {
+        public static final String INTERVAL_MS_CONFIG = "partitioner.health.log.interval.ms";
+        public static final String MAX_EVENTS_CONFIG = "partitioner.health.log.max.events";
+        static final long DEFAULT_INTERVAL_MS = 10000;
+        static final int DEFAULT_MAX_EVENTS = 10;
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(INTERVAL_MS_CONFIG, Type.LONG, DEFAULT_INTERVAL_MS, Range.atLeast(1), Importance.LOW, "Interval over which health transitions are rate limited")
+                .define(MAX_EVENTS_CONFIG, Type.INT, DEFAULT_MAX_EVENTS, Range.atLeast(1), Importance.LOW, "Max number of health transitions logged per interval");
+        }
+
+        public Config(Map<?, ?> props, boolean doLog) {
+            super(CONFIG, props, doLog);
+        }
+    }
+}
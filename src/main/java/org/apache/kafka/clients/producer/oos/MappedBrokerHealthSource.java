@@ -0,0 +1,273 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.NonEmptyString;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigDef.ValidString;
+import org.apache.kafka.common.utils.KafkaThread;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link BrokerHealthSource} sharing the excluded Brokers between processes on the same host through a memory mapped file. 
+ * 
+ * A single `publish` process evaluates health with its delegate source, e.g. {@link AdminBrokerHealthSource}, 
+ * and writes the excluded Brokers across the published topics to the file. 
+ * Any number of `subscribe` processes read it without locking or syscalls, see {@link MappedHealthTable}, 
+ * falling back to their own delegate source while the file is missing, stale, or for another cluster. 
+ * Subscribers map the file again once it's stale and was deleted, replaced or resized, e.g. by a restarted publisher.
+ */
+public class MappedBrokerHealthSource implements BrokerHealthSource {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedBrokerHealthSource.class);
+    static final String THREAD_NAME = "kafka-oos-health-publisher";
+
+    private final Time time = Time.SYSTEM;
+    private BrokerHealthSource delegate;
+    private File path;
+    private long maxAgeMs;
+    private volatile MappedHealthTable table;
+
+    // Subscriber state
+    private volatile long nextOpenMs;
+    private volatile MappedHealthTable.Snapshot lastRead;
+
+    // Publisher state
+    private ScheduledExecutorService executor;
+    private List<String> publishTopics;
+    private volatile Cluster latestCluster;
+    private Cluster publishedCluster;
+    private long publishedGeneration;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        final Config config = new Config(configs);
+        delegate = config.getDelegate();
+        path = new File(config.getFile());
+        maxAgeMs = config.getMaxAgeMs();
+
+        if (config.isPublisher()) {
+            try {
+                table = MappedHealthTable.publish(path, config.getMaxNodeId());
+            } catch (IOException e) {
+                Utils.closeQuietly(delegate, "delegate broker health source");
+                throw new IllegalStateException("Failed to publish Broker health to " + path, e);
+            }
+            publishTopics = config.getTopics();
+            final long publishMs = config.getPublishMs();
+            LOG.info("Publishing Broker health to `{}` every `{}`ms", path, publishMs);
+            executor = Executors.newSingleThreadScheduledExecutor(r -> KafkaThread.daemon(THREAD_NAME, r));
+            executor.scheduleWithFixedDelay(this::publish, 0, publishMs, TimeUnit.MILLISECONDS);
+        } else {
+            LOG.info("Subscribing to Broker health from `{}` MaxAge=`{}`ms", path, maxAgeMs);
+        }
+    }
+
+    @Override
+    public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+        if (executor != null) {
+            if (latestCluster != cluster) {
+                // Publish the new metadata right away rather than on the next heartbeat
+                latestCluster = cluster;
+                try {
+                    executor.execute(this::publish);
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Not publishing Broker health to `{}` as it's closed", path);
+                }
+            }
+            return delegate.unhealthyNodes(cluster, topics);
+        }
+
+        final MappedHealthTable t = this.subscribed();
+        if (t != null && this.isFresh(t)) {
+            MappedHealthTable.Snapshot snapshot = lastRead;
+            if (snapshot == null || snapshot.sequence != t.sequence()) {
+                snapshot = t.read();
+                if (snapshot != null) {
+                    lastRead = snapshot;
+                }
+            }
+            if (snapshot != null && snapshot.clusterHash == MappedHealthTable.clusterHash(cluster.clusterResource().clusterId())) {
+                return snapshot.nodes;
+            }
+        }
+        return delegate.unhealthyNodes(cluster, topics);
+    }
+
+    /**
+     * @return The table's sequence, flagged while it's stale or missing so that cached health is recomputed when it becomes stale, combined with the delegate's generation
+     */
+    @Override
+    public long generation() {
+        if (executor != null) {
+            return delegate.generation();
+        }
+        final MappedHealthTable t = this.subscribed();
+        final long sequence = t != null && this.isFresh(t) ? t.sequence() : Long.MIN_VALUE;
+        return sequence * 31 + delegate.generation();
+    }
+
+    @Override
+    public void evictTopic(String topic) {
+        delegate.evictTopic(topic);
+    }
+
+    private boolean isFresh(MappedHealthTable t) {
+        return t.isValid() && time.milliseconds() - t.heartbeatMs() <= maxAgeMs;
+    }
+
+    /**
+     * @return The subscribed table, checking at most once per max age while it's missing or stale whether the publisher has 
+     *         created, replaced or resized the file, and mapping it again if so
+     */
+    private MappedHealthTable subscribed() {
+        final MappedHealthTable t = table;
+        if (t != null && this.isFresh(t)) {
+            return t;
+        }
+        // Between checks the stale or missing table is returned without taking the lock
+        if (time.milliseconds() < nextOpenMs) {
+            return t;
+        }
+        synchronized (this) {
+            final long now = time.milliseconds();
+            if (now >= nextOpenMs) {
+                nextOpenMs = now + maxAgeMs;
+                if (table != null && !table.isCurrent(path)) {
+                    LOG.info("Broker health file `{}` was replaced or resized, mapping it again", path);
+                    Utils.closeQuietly(table, "mapped health table");
+                    table = null;
+                    lastRead = null;
+                }
+                if (table == null) {
+                    try {
+                        table = MappedHealthTable.subscribe(path);
+                    } catch (IOException e) {
+                        LOG.warn("Failed to map Broker health from `{}`, using the delegate source", path, e);
+                    }
+                }
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Evaluates the published topics against the latest Cluster metadata passed to {@link #unhealthyNodes(Cluster, Collection)} 
+     * and publishes the result. If neither it nor the delegate's generation changed since, only the heartbeat is updated.
+     */
+    void publish() {
+        final Cluster cluster = latestCluster;
+        if (cluster == null) {
+            return;
+        }
+        try {
+            final long generation = delegate.generation();
+            if (cluster == publishedCluster && generation == publishedGeneration) {
+                table.heartbeat(time.milliseconds());
+                return;
+            }
+            final Collection<String> topics = publishTopics.isEmpty() ? cluster.topics() : publishTopics;
+            final BitSet nodes = delegate.unhealthyNodes(cluster, topics);
+            if (!table.publish(MappedHealthTable.clusterHash(cluster.clusterResource().clusterId()), nodes, time.milliseconds())) {
+                LOG.warn("Excluded Brokers `{}` exceed `{}`, only publishing those within it", nodes, Config.MAX_NODE_ID_CONFIG);
+            }
+            publishedCluster = cluster;
+            publishedGeneration = generation;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to publish Broker health to `{}`", path, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        final MappedHealthTable t = table;
+        if (t != null) {
+            Utils.closeQuietly(t, "mapped health table");
+        }
+        Utils.closeQuietly(delegate, "delegate broker health source");
+    }
+
+    public static class Config extends AbstractConfig {
+        public static final String FILE_CONFIG = "partitioner.health.mapped.file";
+        public static final String MODE_CONFIG = "partitioner.health.mapped.mode";
+        public static final String MODE_PUBLISH = "publish";
+        public static final String MODE_SUBSCRIBE = "subscribe";
+        public static final String DELEGATE_CONFIG = "partitioner.health.mapped.delegate";
+        public static final String TOPICS_CONFIG = "partitioner.health.mapped.topics";
+        public static final String PUBLISH_MS_CONFIG = "partitioner.health.mapped.publish.ms";
+        public static final String MAX_AGE_MS_CONFIG = "partitioner.health.mapped.max.age.ms";
+        public static final String MAX_NODE_ID_CONFIG = "partitioner.health.mapped.max.node.id";
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(FILE_CONFIG, Type.STRING, ConfigDef.NO_DEFAULT_VALUE, new NonEmptyString(), Importance.HIGH, 
+                    "File to publish the excluded Brokers to, or read them from. Should be on a memory backed file system, e.g. /dev/shm")
+                .define(MODE_CONFIG, Type.STRING, MODE_SUBSCRIBE, ValidString.in(MODE_PUBLISH, MODE_SUBSCRIBE), Importance.HIGH, 
+                    "`publish` to evaluate health and write it to the file, only one process may publish to a file. `subscribe` to read it")
+                .define(DELEGATE_CONFIG, Type.CLASS, IsrBrokerHealthSource.class, Importance.MEDIUM, 
+                    "Class implementing " + BrokerHealthSource.class.getName() + " that publishers evaluate health with, "
+                    + "and that subscribers fall back to while the file is missing or stale")
+                .define(TOPICS_CONFIG, Type.LIST, Collections.emptyList(), Importance.MEDIUM, 
+                    "Topics whose out of sync Brokers are published. When empty all topics known to the publishing producer are evaluated")
+                .define(PUBLISH_MS_CONFIG, Type.LONG, 1000L, Range.atLeast(1), Importance.LOW, 
+                    "Interval to publish a heartbeat, re-evaluating health if the delegate source reports a new generation. New Cluster metadata is published as soon as it is seen")
+                .define(MAX_AGE_MS_CONFIG, Type.LONG, 30000L, Range.atLeast(1), Importance.LOW, 
+                    "Time since the last heartbeat after which subscribers consider the published health stale and use their delegate source")
+                .define(MAX_NODE_ID_CONFIG, Type.INT, 65535, Range.between(0, 1 << 24), Importance.LOW, 
+                    "Highest Broker ID publishers make room for in the file");
+        }
+
+        public Config(Map<?, ?> props) {
+            super(CONFIG, props, false);
+        }
+
+        public String getFile(){
+            return this.getString(FILE_CONFIG);
+        }
+
+        public boolean isPublisher(){
+            return MODE_PUBLISH.equals(this.getString(MODE_CONFIG));
+        }
+
+        public BrokerHealthSource getDelegate(){
+            return this.getConfiguredInstance(DELEGATE_CONFIG, BrokerHealthSource.class);
+        }
+
+        public List<String> getTopics(){
+            return this.getList(TOPICS_CONFIG);
+        }
+
+        public long getPublishMs(){
+            return this.getLong(PUBLISH_MS_CONFIG);
+        }
+
+        public long getMaxAgeMs(){
+            return this.getLong(MAX_AGE_MS_CONFIG);
+        }
+
+        public int getMaxNodeId(){
+            return this.getInt(MAX_NODE_ID_CONFIG);
+        }
+    }
+}
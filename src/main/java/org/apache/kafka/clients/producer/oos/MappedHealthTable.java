@@ -0,0 +1,297 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Memory mapped table of excluded Broker IDs, written by a single publisher and read by any number of processes without locking or syscalls.
+ * 
+ * Layout, in native byte order:
+ * <pre>
+ * 0  int  magic
+ * 4  int  layout version
+ * 8  int  capacity in 64 bit words
+ * 16 long sequence, odd while a write is in progress
+ * 24 long heartbeat, epoch ms of the last publish, written outside of the sequence
+ * 32 long hash of the cluster ID
+ * 40 long[capacity] bitmap of excluded Broker IDs
+ * </pre>
+ * Readers retry whenever the sequence was odd or changed while reading, the seqlock pattern. 
+ * A publisher taking over the file clears the magic before resizing it, so readers stop reading a layout that may no longer fit the file.
+ */
+final class MappedHealthTable implements Closeable {
+    static final int MAGIC = 0x4f4f5348;
+    static final int LAYOUT_VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final int HEARTBEAT_OFFSET = 24;
+    private static final int CLUSTER_OFFSET = 32;
+    private static final int WORDS_OFFSET = 40;
+    private static final int MAX_READ_ATTEMPTS = 64;
+
+    // Ordering the seqlock's accesses to memory shared with other processes needs store and load fences, 
+    // which Java 8 only offers through sun.misc.Unsafe as VarHandle requires Java 9. 
+    // They're looked up reflectively, as javac's warning about referencing the internal API can't be suppressed.
+    private static final MethodHandle STORE_FENCE;
+    private static final MethodHandle LOAD_FENCE;
+    static {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            final Object unsafe = f.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STORE_FENCE = lookup.findVirtual(unsafeClass, "storeFence", MethodType.methodType(void.class)).bindTo(unsafe);
+            LOAD_FENCE = lookup.findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class)).bindTo(unsafe);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Object fileKey;
+    private long[] published;
+
+    private MappedHealthTable(RandomAccessFile file, FileLock lock, MappedByteBuffer buffer, int capacity, Object fileKey) {
+        this.file = file;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.fileKey = fileKey;
+    }
+
+    private static void storeFence() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates, or takes over, the table as its only publisher.
+     * 
+     * @param path File to map
+     * @param maxNodeId Highest Broker ID that can be published
+     * @throws IOException If the file can't be mapped, or another process is already publishing to it
+     */
+    static MappedHealthTable publish(File path, int maxNodeId) throws IOException {
+        final int capacity = maxNodeId / Long.SIZE + 1;
+        final RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            final FileChannel channel = file.getChannel();
+            final FileLock lock = channel.tryLock();
+            if (lock == null) {
+                throw new IOException("Another process is already publishing to " + path);
+            }
+            final int size = WORDS_OFFSET + capacity * Long.BYTES;
+            if (file.length() >= WORDS_OFFSET) {
+                // Invalidate the previous layout before the file is resized, so subscribers stop reading past its new end
+                final MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, WORDS_OFFSET);
+                header.putInt(MAGIC_OFFSET, 0);
+                storeFence();
+            }
+            file.setLength(size);
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+
+            // Invalidate any previous layout while it's rewritten
+            buffer.putInt(MAGIC_OFFSET, 0);
+            storeFence();
+            buffer.putInt(VERSION_OFFSET, LAYOUT_VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(SEQUENCE_OFFSET, (buffer.getLong(SEQUENCE_OFFSET) + 2) & ~1L);
+            buffer.putLong(HEARTBEAT_OFFSET, 0);
+            for (int i = 0; i < capacity; i++) {
+                buffer.putLong(WORDS_OFFSET + i * Long.BYTES, 0);
+            }
+            storeFence();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            return new MappedHealthTable(file, lock, buffer, capacity, null);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param path File to map
+     * @return Table to read, or null if the publisher hasn't created it yet
+     * @throws IOException If the file can't be mapped
+     */
+    static MappedHealthTable subscribe(File path) throws IOException {
+        if (!path.exists()) {
+            return null;
+        }
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            final Object fileKey = Files.readAttributes(path.toPath(), BasicFileAttributes.class).fileKey();
+            final long size = file.length();
+            if (size < WORDS_OFFSET) {
+                file.close();
+                return null;
+            }
+            final MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            final int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != LAYOUT_VERSION 
+                    || WORDS_OFFSET + (long) capacity * Long.BYTES > size) {
+                file.close();
+                return null;
+            }
+            return new MappedHealthTable(file, null, buffer, capacity, fileKey);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes the excluded Brokers, only moving to a new sequence when they or the cluster changed, and updates the heartbeat.
+     * 
+     * @return False if some of the Broker IDs were above the table's capacity and not published
+     */
+    boolean publish(long clusterHash, BitSet nodes, long nowMs) {
+        long[] words = nodes.toLongArray();
+        final boolean fits = words.length <= capacity;
+        words = Arrays.copyOf(words, capacity);
+        if (published == null || !Arrays.equals(words, published) || buffer.getLong(CLUSTER_OFFSET) != clusterHash) {
+            final long sequence = buffer.getLong(SEQUENCE_OFFSET);
+            buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+            storeFence();
+            buffer.putLong(CLUSTER_OFFSET, clusterHash);
+            for (int i = 0; i < capacity; i++) {
+                buffer.putLong(WORDS_OFFSET + i * Long.BYTES, words[i]);
+            }
+            storeFence();
+            buffer.putLong(SEQUENCE_OFFSET, sequence + 2);
+            published = words;
+        }
+        buffer.putLong(HEARTBEAT_OFFSET, nowMs);
+        return fits;
+    }
+
+    /**
+     * Updates the heartbeat, without publishing anything.
+     */
+    void heartbeat(long nowMs) {
+        buffer.putLong(HEARTBEAT_OFFSET, nowMs);
+    }
+
+    /**
+     * @return True if the layout mapped is still the one being published to, false once a publisher took the file over to rewrite it
+     */
+    boolean isValid() {
+        return buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(CAPACITY_OFFSET) == capacity;
+    }
+
+    /**
+     * Checks whether the mapping still matches the file, which takes a syscall so should only be done once the table looks stale.
+     * 
+     * @param path File that was mapped
+     * @return False if the file was deleted, replaced, resized or its layout rewritten since it was mapped, so it should be mapped again
+     */
+    boolean isCurrent(File path) {
+        if (!this.isValid()) {
+            return false;
+        }
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path.toPath(), BasicFileAttributes.class);
+            return attributes.size() == buffer.capacity() && Objects.equals(attributes.fileKey(), fileKey);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Current sequence, odd while a write is in progress
+     */
+    long sequence() {
+        return buffer.getLong(SEQUENCE_OFFSET);
+    }
+
+    long heartbeatMs() {
+        return buffer.getLong(HEARTBEAT_OFFSET);
+    }
+
+    /**
+     * Reads a consistent copy of the table.
+     * 
+     * @return Snapshot of the table, or null if the publisher kept writing for too long to get a consistent read, or is rewriting the layout
+     */
+    Snapshot read() {
+        final long[] words = new long[capacity];
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            if (!this.isValid()) {
+                return null;
+            }
+            final long before = buffer.getLong(SEQUENCE_OFFSET);
+            if ((before & 1) != 0) {
+                continue;
+            }
+            loadFence();
+            final long clusterHash = buffer.getLong(CLUSTER_OFFSET);
+            for (int i = 0; i < capacity; i++) {
+                words[i] = buffer.getLong(WORDS_OFFSET + i * Long.BYTES);
+            }
+            loadFence();
+            if (buffer.getLong(SEQUENCE_OFFSET) == before) {
+                return new Snapshot(before, clusterHash, BitSet.valueOf(words));
+            }
+        }
+        return null;
+    }
+
+    static long clusterHash(String clusterId) {
+        return clusterId == null ? 0 : clusterId.hashCode() * 0x9E3779B97F4A7C15L + clusterId.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (lock != null) {
+            lock.release();
+        }
+        file.close();
+    }
+
+    static final class Snapshot {
+        final long sequence;
+        final long clusterHash;
+        final BitSet nodes;
+
+        private Snapshot(long sequence, long clusterHash, BitSet nodes) {
+            this.sequence = sequence;
+            this.clusterHash = clusterHash;
+            this.nodes = nodes;
+        }
+    }
+}
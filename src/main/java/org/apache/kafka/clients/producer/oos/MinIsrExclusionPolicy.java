@@ -0,0 +1,68 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigDef.Importance;
+import org.apache.kafka.common.config.ConfigDef.Range;
+import org.apache.kafka.common.config.ConfigDef.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExclusionPolicy} that only excludes the partitions whose ISR, in the producer's metadata, has shrunk to the configured min ISR or below. 
+ * A lagging follower then costs no write capacity until its partitions are close to rejecting acks=all writes. 
+ * The {@link BrokerHealthSource} isn't consulted.
+ */
+public class MinIsrExclusionPolicy implements ExclusionPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(MinIsrExclusionPolicy.class);
+
+    private int minIsr = 2;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        minIsr = new Config(configs).getMinIsr();
+        LOG.info("Excluding partitions with an ISR of at most `{}`", minIsr);
+    }
+
+    @Override
+    public BitSet excludedNodes(Cluster cluster, Collection<String> topics, BitSet unhealthyNodes) {
+        return new BitSet();
+    }
+
+    @Override
+    public boolean excludesPartitions() {
+        return true;
+    }
+
+    @Override
+    public boolean isExcluded(PartitionInfo partition) {
+        return partition.inSyncReplicas().length <= minIsr;
+    }
+
+    public static class Config extends AbstractConfig {
+        public static final String MIN_ISR_CONFIG = "partitioner.exclusion.min.isr";
+
+        final static ConfigDef CONFIG;
+        static {
+            CONFIG = new ConfigDef()
+                .define(MIN_ISR_CONFIG, Type.INT, 2, Range.atLeast(1), Importance.MEDIUM, 
+                    "Partitions with this many in sync replicas or less are excluded. "
+                    + "Usually the topics' min.insync.replicas, so that only partitions one more lagging replica away from rejecting acks=all writes are avoided. "
+                    + "Must be below the topics' replication factor, otherwise every partition is excluded and records are spread over all of them");
+        }
+
+        public Config(Map<?, ?> props) {
+            super(CONFIG, props, false);
+        }
+
+        public int getMinIsr(){
+            return this.getInt(MIN_ISR_CONFIG);
+        }
+    }
+}
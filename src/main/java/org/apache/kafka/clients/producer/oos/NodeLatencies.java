@@ -0,0 +1,118 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.metrics.KafkaMetric;
+
+/**
+ * Per producer view of the request latency to each Node, fed by {@link NodeLatencyReporter} 
+ * and shared with the producer's partitioner through a registry keyed by client.id.
+ */
+final class NodeLatencies {
+    private static final Map<String, NodeLatencies> REGISTRY = new HashMap<>();
+
+    private final String clientId;
+    private final ConcurrentMap<Integer, KafkaMetric> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong nextRefreshMs = new AtomicLong();
+    private volatile Weights weights = Weights.NONE;
+    private int refs;
+
+    private NodeLatencies(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * Returns the latencies of a client, creating them if needed. Every call must be matched by a call to {@link #release()}.
+     */
+    static NodeLatencies acquire(String clientId) {
+        synchronized (REGISTRY) {
+            final NodeLatencies latencies = REGISTRY.computeIfAbsent(clientId, NodeLatencies::new);
+            latencies.refs++;
+            return latencies;
+        }
+    }
+
+    /**
+     * Releases a reference, removing the client from the registry once both its partitioner and reporter have released it.
+     */
+    void release() {
+        synchronized (REGISTRY) {
+            if (--refs <= 0) {
+                REGISTRY.remove(clientId, this);
+            }
+        }
+    }
+
+    void put(int nodeId, KafkaMetric latencyAvg) {
+        latencies.put(nodeId, latencyAvg);
+    }
+
+    void remove(int nodeId) {
+        latencies.remove(nodeId);
+    }
+
+    /**
+     * Returns the latency weights, recomputing them from the current metric values at most once per refresh interval.
+     * 
+     * @param nowMs Current time
+     * @param refreshMs Min time between recomputing the weights
+     * @param minWeight Lowest weight a Node can be given
+     * @return Weight of each Node
+     */
+    Weights weights(long nowMs, long refreshMs, double minWeight) {
+        final long next = nextRefreshMs.get();
+        if (nowMs >= next && nextRefreshMs.compareAndSet(next, nowMs + refreshMs)) {
+            weights = this.compute(minWeight);
+        }
+        return weights;
+    }
+
+    private Weights compute(double minWeight) {
+        final Map<Integer, Double> values = new HashMap<>();
+        double fastest = Double.MAX_VALUE;
+        for (Map.Entry<Integer, KafkaMetric> e : latencies.entrySet()) {
+            final Object value = e.getValue().metricValue();
+            // No requests in the sample window reports NaN, which leaves the Node at full weight
+            if (value instanceof Number && ((Number) value).doubleValue() > 0) {
+                final double latency = ((Number) value).doubleValue();
+                values.put(e.getKey(), latency);
+                fastest = Math.min(fastest, latency);
+            }
+        }
+        if (values.isEmpty()) {
+            return Weights.NONE;
+        }
+
+        final Map<Integer, Double> nodeWeights = new HashMap<>();
+        for (Map.Entry<Integer, Double> e : values.entrySet()) {
+            nodeWeights.put(e.getKey(), Math.max(minWeight, fastest / e.getValue()));
+        }
+        return new Weights(nodeWeights);
+    }
+
+    /**
+     * Immutable weight of each Node, inversely proportional to its latency relative to the fastest Node. 
+     * A new instance is created on every refresh, so identity can be used to tell if they've changed.
+     */
+    static final class Weights {
+        static final Weights NONE = new Weights(Collections.emptyMap());
+
+        private final Map<Integer, Double> nodeWeights;
+
+        Weights(Map<Integer, Double> nodeWeights) {
+            this.nodeWeights = nodeWeights;
+        }
+
+        /**
+         * @return Weight between the min weight and 1, or 1 for Nodes with no known latency
+         */
+        double weight(int nodeId) {
+            return nodeWeights.getOrDefault(nodeId, 1.0);
+        }
+    }
+}
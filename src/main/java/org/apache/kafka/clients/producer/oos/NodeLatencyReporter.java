@@ -0,0 +1,83 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Producer {@link MetricsReporter} that feeds the per Node request latency to the partitioner when 
+ * {@link AbstractOutOfSyncRedirectPartitionCache.Config#LATENCY_WEIGHTED_CONFIG} is enabled. 
+ * Register it in the producer's metric.reporters alongside the partitioner.
+ */
+public class NodeLatencyReporter implements MetricsReporter {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeLatencyReporter.class);
+    static final String NODE_METRICS_GROUP = "producer-node-metrics";
+    static final String LATENCY_METRIC = "request-latency-avg";
+    static final String NODE_ID_TAG = "node-id";
+    static final String NODE_ID_PREFIX = "node-";
+
+    private NodeLatencies latencies;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        final Object clientId = configs.get(CommonClientConfigs.CLIENT_ID_CONFIG);
+        latencies = NodeLatencies.acquire(clientId == null ? "" : clientId.toString());
+    }
+
+    @Override
+    public void init(List<KafkaMetric> metrics) {
+        for (KafkaMetric metric : metrics) {
+            this.metricChange(metric);
+        }
+    }
+
+    @Override
+    public void metricChange(KafkaMetric metric) {
+        final int nodeId = nodeId(metric.metricName());
+        if (nodeId >= 0) {
+            LOG.debug("Tracking latency of Node `{}`", nodeId);
+            latencies.put(nodeId, metric);
+        }
+    }
+
+    @Override
+    public void metricRemoval(KafkaMetric metric) {
+        final int nodeId = nodeId(metric.metricName());
+        if (nodeId >= 0) {
+            latencies.remove(nodeId);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (latencies != null) {
+            latencies.release();
+            latencies = null;
+        }
+    }
+
+    /**
+     * @return Node ID of a per Node request latency metric, or a negative value for any other metric. 
+     *         Bootstrap connections also have negative IDs, which is fine as they never lead partitions.
+     */
+    static int nodeId(MetricName name) {
+        if (!LATENCY_METRIC.equals(name.name()) || !NODE_METRICS_GROUP.equals(name.group())) {
+            return -1;
+        }
+        final String node = name.tags().get(NODE_ID_TAG);
+        if (node == null || !node.startsWith(NODE_ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(node.substring(NODE_ID_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
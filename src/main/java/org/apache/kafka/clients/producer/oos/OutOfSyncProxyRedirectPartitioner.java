@@ -29,14 +29,16 @@ public class OutOfSyncProxyRedirectPartitioner implements Partitioner {
 
     @Override
     public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
-        return uStickyPartitionCache.partition(topic, cluster);
+        return uStickyPartitionCache.partition(topic, keyBytes, valueBytes, cluster);
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        uStickyPartitionCache.close();
+    }
 
     @Override
     public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
-        uStickyPartitionCache.nextPartition(topic, cluster, prevPartition);
+        uStickyPartitionCache.onNewBatch(topic, cluster, prevPartition);
     }
 }
@@ -1,58 +1,131 @@
 package org.apache.kafka.clients.producer.oos;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.kafka.common.Cluster;
-import org.apache.kafka.common.PartitionInfo;
-import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Importance;
 import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Modified version of {@link org.apache.kafka.clients.producer.internals.StickyPartitionCache} that reduces what is considered an Available partition.
  * It does this by removing any partitions whos leader might also have replica for a proxy topic that are not in sync with the leader of that partition.
+ * Proxy topics can be given as a list and/or as a pattern matched against the topics in the Cluster metadata, 
+ * a lagging replica on any of them counting against its Broker.
  * 
  * @see org.apache.kafka.clients.producer.internals.StickyPartitionCache
  */
 public class OutOfSyncProxyRedirectStickyPartitionCache extends AbstractOutOfSyncRedirectPartitionCache {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractOutOfSyncRedirectPartitionCache.class);
 
-    private String proxyTopic;
+    /** Sorted and immutable, so that it can be used as is as the key of the shared health. */
+    private Set<String> proxyTopics = Collections.emptySet();
+    private Pattern proxyTopicPattern;
+    /** Whether each topic seen in the Cluster metadata matches the pattern, so that it's only matched once per topic. */
+    private final ConcurrentMap<String, Boolean> patternMatches = new ConcurrentHashMap<>();
 
     @Override
     public void configure(Map<String, ?> configs) {
         LOG.info("Using Proxied OutOfSync Partitioning");
 
         Config cnf = new Config(configs, true);
-        proxyTopic = cnf.getProxyTopic();
+        proxyTopics = Collections.unmodifiableSet(new TreeSet<>(cnf.getProxyTopics()));
+        proxyTopicPattern = cnf.getProxyTopicPattern();
+        if (proxyTopics.isEmpty() && proxyTopicPattern == null) {
+            throw new ConfigException("At least one of " + Config.PROXY_TOPIC_CONFIG + " or " + Config.PROXY_TOPIC_PATTERN_CONFIG + " must be set");
+        }
+        LOG.info("ProxyTopics=`{}` ProxyTopicPattern=`{}`", proxyTopics, proxyTopicPattern);
+        super.configure(cnf);
     }
 
     @Override
-    List<PartitionInfo> computeAvailablePartitions(String topic, Cluster cluster) {
+    TopicHealth computeTopicHealth(String topic, ClusterHealthSnapshot snapshot) {
         LOG.debug("Computing Available Partitions");
-        return this.computeAvailablePartitions(topic, cluster, this.findOutOfSyncNodes(proxyTopic, cluster));
+        // The proxy topic is the same for every topic so its health only needs to be evaluated once per snapshot
+        return this.computeTopicHealth(topic, snapshot, SHARED_HEALTH_SOURCE, this.sharedBrokerHealth(snapshot).outOfSyncNodes());
+    }
+
+    /**
+     * Resolves the proxy topics, only called once per Cluster metadata instance when the shared health is computed.
+     * Topics are matched against the pattern the first time they appear in the metadata.
+     */
+    @Override
+    Collection<String> sharedHealthTopics(Cluster cluster) {
+        if (proxyTopicPattern == null) {
+            return proxyTopics;
+        }
+
+        final Set<String> topics = new LinkedHashSet<>(proxyTopics);
+        for (String topic : cluster.topics()) {
+            if (patternMatches.computeIfAbsent(topic, t -> proxyTopicPattern.matcher(t).matches())) {
+                topics.add(topic);
+            }
+        }
+        // Forget topics that have dropped out of the metadata
+        if (patternMatches.size() > cluster.topics().size()) {
+            patternMatches.keySet().retainAll(cluster.topics());
+        }
+        return topics;
     }
 
 
-    public static class Config extends AbstractConfig {
+    public static class Config extends AbstractOutOfSyncRedirectPartitionCache.Config {
         public static final String PROXY_TOPIC_CONFIG = "partitioner.proxy.topic";
+        public static final String PROXY_TOPIC_PATTERN_CONFIG = "partitioner.proxy.topic.pattern";
 
         final static ConfigDef CONFIG;
         static {
-            CONFIG = new ConfigDef()
-                .define(PROXY_TOPIC_CONFIG, Type.STRING, Importance.HIGH, "Kafka Topic to use as a Proxy topic to detect invalid Nodes to exclude from Publishing to");
+            CONFIG = new ConfigDef(AbstractOutOfSyncRedirectPartitionCache.Config.CONFIG)
+                .define(PROXY_TOPIC_CONFIG, Type.LIST, Collections.emptyList(), Importance.HIGH, 
+                    "Kafka Topics to use as Proxy topics to detect invalid Nodes to exclude from Publishing to")
+                .define(PROXY_TOPIC_PATTERN_CONFIG, Type.STRING, "", Importance.HIGH, 
+                    "Regex of Kafka Topics, in the producer's metadata, to use as Proxy topics in addition to " + PROXY_TOPIC_CONFIG);
         }
 
         public Config(Map<?, ?> props, boolean doLog) {
             super(CONFIG, props, doLog);
         }
 
+        /**
+         * @return The first proxy topic, or null if only a pattern was configured
+         * @deprecated Use {@link #getProxyTopics()} as multiple proxy topics can be configured
+         */
+        @Deprecated
         public String getProxyTopic(){
-            return this.getString(PROXY_TOPIC_CONFIG);
+            final List<String> topics = this.getProxyTopics();
+            return topics.isEmpty() ? null : topics.get(0);
+        }
+
+        public List<String> getProxyTopics(){
+            return this.getList(PROXY_TOPIC_CONFIG);
+        }
+
+        /**
+         * @return The compiled pattern, or null if none was configured
+         */
+        public Pattern getProxyTopicPattern(){
+            final String pattern = this.getString(PROXY_TOPIC_PATTERN_CONFIG);
+            if (pattern.isEmpty()) {
+                return null;
+            }
+            try {
+                return Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                throw new ConfigException(PROXY_TOPIC_PATTERN_CONFIG, pattern, e.getMessage());
+            }
         }
         
     }
@@ -0,0 +1,184 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.utils.Time;
+
+/**
+ * Metrics of the redirect partition caches, registered through Kafka's {@link Metrics} and exposed over JMX 
+ * under the {@value #JMX_PREFIX} domain.
+ * 
+ * Nothing is recorded per record, only on batch rolls and health computations, 
+ * and per topic sensors are looked up from a map so recording never contends on the Metrics registry.
+ */
+final class OutOfSyncRedirectMetrics implements Closeable {
+    static final String JMX_PREFIX = "kafka.producer.oos";
+    static final String METRIC_GROUP = "oos-partitioner-metrics";
+    static final String TOPIC_METRIC_GROUP = "oos-partitioner-topic-metrics";
+
+    /** Prefix of the client-id tag of partitioners whose producer has no client.id, suffixed with a sequence so their MBeans don't collide. */
+    static final String ANONYMOUS_CLIENT_ID_PREFIX = "oos-partitioner-";
+    private static final AtomicInteger ANONYMOUS_CLIENT_IDS = new AtomicInteger();
+
+    private static final int PERCENTILES_SIZE_IN_BYTES = 4096;
+    /** Health computations take microseconds, recorded values above this land in the last bucket and are only seen by the max. */
+    private static final double MAX_HEALTH_COMPUTE_TIME_US = 100_000;
+
+    private final Metrics metrics;
+    private final Time time;
+    private final Map<String, String> tags;
+    private final Function<String, TopicHealth> currentHealth;
+    private final ConcurrentMap<String, TopicSensors> topics = new ConcurrentHashMap<>();
+    private final Sensor healthComputeTime;
+
+    /**
+     * @param clientId Producer's client.id, used to tag all metrics, or empty to generate a unique tag
+     * @param time Clock used to timestamp recordings
+     * @param currentHealth Looks up the current health of a topic, or null if not known
+     */
+    OutOfSyncRedirectMetrics(String clientId, Time time, Function<String, TopicHealth> currentHealth) {
+        final MetricsReporter reporter = new JmxReporter();
+        reporter.configure(Collections.emptyMap());
+        this.metrics = new Metrics(new MetricConfig(), Collections.singletonList(reporter), time, new KafkaMetricsContext(JMX_PREFIX));
+        this.time = time;
+        this.tags = Collections.singletonMap("client-id", clientId.isEmpty() ? ANONYMOUS_CLIENT_ID_PREFIX + ANONYMOUS_CLIENT_IDS.incrementAndGet() : clientId);
+        this.currentHealth = currentHealth;
+
+        healthComputeTime = metrics.sensor("health-compute-time");
+        healthComputeTime.add(metrics.metricName("health-compute-time-avg", METRIC_GROUP, "Average time in microseconds to compute the health of a topic", tags), new Avg());
+        healthComputeTime.add(metrics.metricName("health-compute-time-max", METRIC_GROUP, "Max time in microseconds to compute the health of a topic", tags), new Max());
+        healthComputeTime.add(new Percentiles(PERCENTILES_SIZE_IN_BYTES, MAX_HEALTH_COMPUTE_TIME_US, BucketSizing.LINEAR,
+            new Percentile(metrics.metricName("health-compute-time-p50", METRIC_GROUP, "Median time in microseconds to compute the health of a topic", tags), 50),
+            new Percentile(metrics.metricName("health-compute-time-p99", METRIC_GROUP, "99th percentile time in microseconds to compute the health of a topic", tags), 99),
+            new Percentile(metrics.metricName("health-compute-time-p999", METRIC_GROUP, "99.9th percentile time in microseconds to compute the health of a topic", tags), 99.9)
+        ));
+    }
+
+    /**
+     * Registers a gauge tagged with the client.id only.
+     */
+    void addGauge(String name, String description, Gauge<?> gauge) {
+        metrics.addMetric(metrics.metricName(name, METRIC_GROUP, description, tags), gauge);
+    }
+
+    /**
+     * Records a batch rolling over to a new partition of the topic.
+     * 
+     * @param topic Topic to Partition against
+     * @param health Health the new partition was chosen from
+     */
+    void recordBatchRoll(String topic, TopicHealth health) {
+        final TopicSensors sensors = this.topicSensors(topic);
+        final long now = time.milliseconds();
+        sensors.batchRolls.record(1, now);
+        if (health.numEligible() < 1) {
+            sensors.fallbacks.record(1, now);
+        } else if (health.numEligible() < health.numPartitions()) {
+            sensors.redirects.record(1, now);
+        }
+    }
+
+    /**
+     * @param nanos Time it took to compute the health of a topic
+     */
+    void recordHealthComputation(long nanos) {
+        healthComputeTime.record(nanos / 1_000d, time.milliseconds());
+    }
+
+    /**
+     * Removes all the metrics of a topic, i.e. once it is evicted
+     */
+    void removeTopic(String topic) {
+        final TopicSensors sensors = topics.remove(topic);
+        if (sensors != null) {
+            sensors.remove();
+        }
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    private TopicSensors topicSensors(String topic) {
+        final TopicSensors sensors = topics.get(topic);
+        return sensors != null ? sensors : topics.computeIfAbsent(topic, TopicSensors::new);
+    }
+
+    private final class TopicSensors {
+        private final String topic;
+        private final Map<String, String> topicTags;
+        private final Sensor batchRolls;
+        private final Sensor redirects;
+        private final Sensor fallbacks;
+        private final MetricName eligible;
+        private final MetricName partitions;
+        private final MetricName excludedBrokers;
+
+        TopicSensors(String topic) {
+            this.topic = topic;
+            this.topicTags = new HashMap<>(tags);
+            topicTags.put("topic", topic);
+
+            batchRolls = this.meter("batch-roll", "batch roll overs to a new sticky partition");
+            redirects = this.meter("redirect", "batch roll overs that were redirected away from brokers with out of sync replicas");
+            fallbacks = this.meter("fallback", "batch roll overs that fell back to a random partition out of all partitions, as no partition was eligible");
+
+            eligible = this.gauge("eligible-partitions", "Number of partitions currently eligible to be published too", TopicHealth::numEligible);
+            partitions = this.gauge("partitions", "Total number of partitions", TopicHealth::numPartitions);
+            excludedBrokers = this.gauge("excluded-brokers", "Number of brokers currently excluded from being published too", TopicHealth::numExcludedNodes);
+        }
+
+        private Sensor meter(String name, String description) {
+            final Sensor sensor = metrics.sensor(this.sensorName(name));
+            sensor.add(new Meter(
+                metrics.metricName(name + "-rate", TOPIC_METRIC_GROUP, "Per second rate of " + description, topicTags), 
+                metrics.metricName(name + "-total", TOPIC_METRIC_GROUP, "Total number of " + description, topicTags)));
+            return sensor;
+        }
+
+        private MetricName gauge(String name, String description, ToIntFunction<TopicHealth> value) {
+            final MetricName metricName = metrics.metricName(name, TOPIC_METRIC_GROUP, description, topicTags);
+            metrics.addMetric(metricName, (Gauge<Integer>) (config, now) -> {
+                final TopicHealth health = currentHealth.apply(topic);
+                return health == null ? null : value.applyAsInt(health);
+            });
+            return metricName;
+        }
+
+        private String sensorName(String name) {
+            return "topic." + topic + "." + name;
+        }
+
+        void remove() {
+            metrics.removeSensor(this.sensorName("batch-roll"));
+            metrics.removeSensor(this.sensorName("redirect"));
+            metrics.removeSensor(this.sensorName("fallback"));
+            metrics.removeMetric(eligible);
+            metrics.removeMetric(partitions);
+            metrics.removeMetric(excludedBrokers);
+        }
+    }
+}
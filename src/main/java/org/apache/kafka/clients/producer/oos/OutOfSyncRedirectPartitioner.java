@@ -36,7 +36,8 @@ public class OutOfSyncRedirectPartitioner implements Partitioner {
 
         LOG.info("MetadataTTL=`{}` DeliveryTimeout=`{}`", metadatTTL, deliveryTimeout);
         if (metadatTTL >= deliveryTimeout){
-            LOG.warn("Metadata TTL is Greater >= Delivery Timeout. The can result in increased delayed response to ISR issues and more TimedOut records to handle.");
+            LOG.warn("Metadata TTL is Greater >= Delivery Timeout. The can result in increased delayed response to ISR issues and more TimedOut records to handle. "
+                + "Consider polling Broker health independently with `{}`", AdminBrokerHealthSource.class.getName());
         }
 
         uStickyPartitionCache.configure(configs);
@@ -44,14 +45,16 @@ public class OutOfSyncRedirectPartitioner implements Partitioner {
 
     @Override
     public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
-        return uStickyPartitionCache.partition(topic, cluster);
+        return uStickyPartitionCache.partition(topic, keyBytes, valueBytes, cluster);
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        uStickyPartitionCache.close();
+    }
 
     @Override
     public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
-        uStickyPartitionCache.nextPartition(topic, cluster, prevPartition);
+        uStickyPartitionCache.onNewBatch(topic, cluster, prevPartition);
     }
 }
@@ -1,10 +1,8 @@
 package org.apache.kafka.clients.producer.oos;
 
-import java.util.List;
 import java.util.Map;
 
 import org.apache.kafka.common.Cluster;
-import org.apache.kafka.common.PartitionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,11 +18,15 @@ public class OutOfSyncRedirectStickyPartitionCache extends AbstractOutOfSyncRedi
     @Override
     public void configure(Map<String, ?> configs) {
         LOG.info("Using Normal OutOfSync Partitioning");
+        super.configure(configs);
     }
 
     @Override
-    List<PartitionInfo> computeAvailablePartitions(String topic, Cluster cluster) {
+    TopicHealth computeTopicHealth(String topic, ClusterHealthSnapshot snapshot) {
         LOG.debug("Computing Available Partitions");
-        return this.computeAvailablePartitions(topic, cluster, this.findOutOfSyncNodes(topic, cluster));
+        if (clusterHealthScope) {
+            return this.computeTopicHealth(topic, snapshot, SHARED_HEALTH_SOURCE, this.sharedBrokerHealth(snapshot).outOfSyncNodes());
+        }
+        return this.computeTopicHealth(topic, snapshot, topic, this.findOutOfSyncNodes(topic, snapshot.cluster()));
     }
 }
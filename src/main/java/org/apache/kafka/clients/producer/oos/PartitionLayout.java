@@ -0,0 +1,101 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+
+/**
+ * Compact copy of what a {@link TopicHealth} was computed from for each available partition of a topic: its ID and leader, 
+ * and only when they can change the result, the rack of its leader and the IDs of its replicas and ISR. 
+ * Kept in primitive arrays so that checking a new Cluster instance against it only reads the new metadata.
+ */
+final class PartitionLayout {
+    private final int[] partitions;
+    private final int[] leaders;
+    private final String[] racks;
+    private final int[][] replicas;
+
+    /**
+     * @param available Available partitions of the topic
+     * @param withRacks Whether the leaders' racks are part of the layout
+     * @param withReplicas Whether the replicas and ISR are part of the layout
+     */
+    PartitionLayout(List<PartitionInfo> available, boolean withRacks, boolean withReplicas) {
+        final int size = available.size();
+        partitions = new int[size];
+        leaders = new int[size];
+        racks = withRacks ? new String[size] : null;
+        replicas = withReplicas ? new int[size][] : null;
+        for (int i = 0; i < size; i++) {
+            final PartitionInfo p = available.get(i);
+            partitions[i] = p.partition();
+            leaders[i] = p.leader().id();
+            if (racks != null) {
+                racks[i] = p.leader().rack();
+            }
+            if (replicas != null) {
+                replicas[i] = replicaIds(p);
+            }
+        }
+    }
+
+    /**
+     * @param available Available partitions of the topic in a new Cluster instance
+     * @return True if the partitions, in order, match the layout
+     */
+    boolean matches(List<PartitionInfo> available) {
+        if (available.size() != partitions.length) {
+            return false;
+        }
+        for (int i = 0; i < partitions.length; i++) {
+            final PartitionInfo p = available.get(i);
+            final Node leader = p.leader();
+            if (p.partition() != partitions[i] || leader.id() != leaders[i]) {
+                return false;
+            } else if (racks != null && !Objects.equals(leader.rack(), racks[i])) {
+                return false;
+            } else if (replicas != null && !sameReplicas(replicas[i], p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of replicas, followed by the replica IDs and then the ISR IDs, in order
+     */
+    private static int[] replicaIds(PartitionInfo p) {
+        final Node[] replicas = p.replicas();
+        final Node[] isr = p.inSyncReplicas();
+        final int[] ids = new int[1 + replicas.length + isr.length];
+        ids[0] = replicas.length;
+        for (int i = 0; i < replicas.length; i++) {
+            ids[1 + i] = replicas[i].id();
+        }
+        for (int i = 0; i < isr.length; i++) {
+            ids[1 + replicas.length + i] = isr[i].id();
+        }
+        return ids;
+    }
+
+    private static boolean sameReplicas(int[] ids, PartitionInfo p) {
+        final Node[] replicas = p.replicas();
+        final Node[] isr = p.inSyncReplicas();
+        if (ids[0] != replicas.length || ids.length != 1 + replicas.length + isr.length) {
+            return false;
+        }
+        for (int i = 0; i < replicas.length; i++) {
+            if (ids[1 + i] != replicas[i].id()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < isr.length; i++) {
+            if (ids[1 + replicas.length + i] != isr[i].id()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
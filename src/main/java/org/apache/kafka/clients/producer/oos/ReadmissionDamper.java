@@ -0,0 +1,154 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Time;
+
+/**
+ * Damps brokers flapping in and out of sync. 
+ * A broker that was out of sync is kept excluded until it has been seen in sync for a number of consecutive 
+ * Cluster metadata snapshots and for a minimum amount of time. Once readmitted, its traffic is ramped up 
+ * linearly over a period instead of it immediately getting its full share.
+ * 
+ * State is tracked per health source, i.e. per topic or shared by all topics, 
+ * and only advances once per Cluster metadata instance and health source generation.
+ */
+final class ReadmissionDamper {
+    /** Weight a readmitted broker starts its ramp up at, so that it's never fully starved. */
+    static final double MIN_RAMP_WEIGHT = 0.1;
+
+    private final int minInSyncSnapshots;
+    private final long minInSyncMs;
+    private final long rampUpMs;
+    private final Time time;
+    private final ConcurrentMap<String, SourceState> sources = new ConcurrentHashMap<>();
+
+    ReadmissionDamper(int minInSyncSnapshots, long minInSyncMs, long rampUpMs, Time time) {
+        this.minInSyncSnapshots = minInSyncSnapshots;
+        this.minInSyncMs = minInSyncMs;
+        this.rampUpMs = rampUpMs;
+        this.time = time;
+    }
+
+    /**
+     * @return True if any damping has been configured
+     */
+    boolean isEnabled() {
+        return minInSyncSnapshots > 1 || minInSyncMs > 0 || rampUpMs > 0;
+    }
+
+    /**
+     * @param source Health source, i.e. a topic or the shared health
+     * @param cluster Cluster Metadata state the out of sync nodes were found in
+     * @param generation Generation of the Broker health source the out of sync nodes were found with
+     * @param outOfSync Node IDs that are currently out of sync
+     * @return Nodes to exclude and ramp up weights of recently readmitted nodes
+     */
+    Damped apply(String source, Cluster cluster, long generation, BitSet outOfSync) {
+        return sources.computeIfAbsent(source, s -> new SourceState()).apply(cluster, generation, outOfSync, time.milliseconds());
+    }
+
+    /**
+     * Forgets the state of a health source, i.e. once its topic is evicted
+     */
+    void remove(String source) {
+        sources.remove(source);
+    }
+
+    static final class Damped {
+        static final Damped NONE = new Damped(new BitSet(), Collections.emptyMap());
+
+        private final BitSet excluded;
+        private final Map<Integer, Double> rampWeights;
+
+        Damped(BitSet excluded, Map<Integer, Double> rampWeights) {
+            this.excluded = excluded;
+            this.rampWeights = rampWeights;
+        }
+
+        /**
+         * @return Node IDs to exclude
+         */
+        BitSet excluded() {
+            return excluded;
+        }
+
+        /**
+         * @param nodeId Broker Node ID
+         * @return Share of traffic, between 0 and 1, the node should currently get
+         */
+        double weight(int nodeId) {
+            return rampWeights.getOrDefault(nodeId, 1d);
+        }
+
+        boolean isRamping() {
+            return !rampWeights.isEmpty();
+        }
+    }
+
+    private static final class NodeState {
+        long lastOutOfSyncMs;
+        int consecutiveInSync;
+        long readmittedAtMs = -1;
+    }
+
+    private final class SourceState {
+        private final Map<Integer, NodeState> nodes = new HashMap<>();
+        private Cluster lastCluster;
+        private long lastGeneration;
+        private Damped last = Damped.NONE;
+
+        synchronized Damped apply(Cluster cluster, long generation, BitSet outOfSync, long now) {
+            if (cluster == lastCluster && generation == lastGeneration) {
+                return last;
+            }
+            lastCluster = cluster;
+            lastGeneration = generation;
+
+            for (int id = outOfSync.nextSetBit(0); id >= 0; id = outOfSync.nextSetBit(id + 1)) {
+                final NodeState state = nodes.computeIfAbsent(id, i -> new NodeState());
+                state.lastOutOfSyncMs = now;
+                state.consecutiveInSync = 0;
+                state.readmittedAtMs = -1;
+            }
+
+            final BitSet excluded = (BitSet) outOfSync.clone();
+            final Map<Integer, Double> rampWeights = new HashMap<>();
+            final Iterator<Map.Entry<Integer, NodeState>> it = nodes.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Integer, NodeState> e = it.next();
+                final NodeState state = e.getValue();
+                if (outOfSync.get(e.getKey())) {
+                    continue;
+                }
+
+                if (state.readmittedAtMs < 0) {
+                    state.consecutiveInSync++;
+                    if (state.consecutiveInSync < minInSyncSnapshots || now - state.lastOutOfSyncMs < minInSyncMs) {
+                        excluded.set(e.getKey());
+                        continue;
+                    }
+                    state.readmittedAtMs = now;
+                }
+
+                final long rampedMs = now - state.readmittedAtMs;
+                if (rampedMs >= rampUpMs) {
+                    // Fully recovered, nothing left to track
+                    it.remove();
+                } else {
+                    rampWeights.put(e.getKey(), Math.max(MIN_RAMP_WEIGHT, rampedMs / (double) rampUpMs));
+                }
+            }
+
+            last = new Damped(excluded, rampWeights);
+            return last;
+        }
+    }
+}
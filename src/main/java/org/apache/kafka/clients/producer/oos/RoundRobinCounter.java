@@ -0,0 +1,93 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Round robin position of a topic, striped over cache line padded counters so that threads producing to the same topic 
+ * don't contend on a single counter. Like a {@link java.util.concurrent.atomic.LongAdder} it starts with a single stripe 
+ * and only adds stripes, up to the number of cores, once increments collide. A thread whose increment collides 
+ * also moves to another stripe, so two busy threads don't keep sharing one.
+ * 
+ * Each stripe starts at a random position and cycles through every position on its own, 
+ * so positions stay evenly spread across all the threads without being globally ordered.
+ */
+final class RoundRobinCounter {
+    /** Longs between the counters of two stripes, so each is on its own cache line even with adjacent line prefetching. */
+    static final int PADDING = 16;
+    static final int MAX_STRIPES = nextPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicReferenceFieldUpdater<RoundRobinCounter, AtomicLongArray> CELLS = 
+        AtomicReferenceFieldUpdater.newUpdater(RoundRobinCounter.class, AtomicLongArray.class, "cells");
+    /** Stripe probe of each thread, shared by all counters like the probe of a {@link java.util.concurrent.atomic.LongAdder}. */
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> new int[]{initialProbe()});
+
+    private final int recordsPerPosition;
+    private volatile AtomicLongArray cells = newCells(1, null);
+
+    /**
+     * @param recordsPerPosition Number of consecutive calls from a stripe that return the same position
+     */
+    RoundRobinCounter(int recordsPerPosition) {
+        this.recordsPerPosition = recordsPerPosition;
+    }
+
+    /**
+     * @return Next non negative position of the calling thread's stripe
+     */
+    long next() {
+        final int[] probe = PROBE.get();
+        final AtomicLongArray c = cells;
+        final int stripes = c.length() / PADDING;
+        final int slot = (probe[0] & (stripes - 1)) * PADDING;
+        final long count = c.get(slot);
+        if (c.compareAndSet(slot, count, count + 1)) {
+            return count / recordsPerPosition;
+        }
+
+        // Contended, move this thread to another stripe and spread the threads over more stripes for the following calls
+        probe[0] = advanceProbe(probe[0]);
+        if (stripes < MAX_STRIPES) {
+            CELLS.compareAndSet(this, c, newCells(stripes * 2, c));
+        }
+        final AtomicLongArray current = cells;
+        return current.getAndIncrement((probe[0] & (current.length() / PADDING - 1)) * PADDING) / recordsPerPosition;
+    }
+
+    /**
+     * Stripes carry over their counts when growing. Increments racing with the growth land on the previous stripes 
+     * after their count was copied, so those positions are handed out once more from the new stripes.
+     */
+    private static AtomicLongArray newCells(int stripes, AtomicLongArray previous) {
+        final AtomicLongArray c = new AtomicLongArray(stripes * PADDING);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int s = 0; s < stripes; s++) {
+            final int slot = s * PADDING;
+            c.set(slot, previous != null && slot < previous.length() ? previous.get(slot) : random.nextInt(Integer.MAX_VALUE));
+        }
+        return c;
+    }
+
+    /**
+     * Spreads thread IDs, which are usually sequential, over the stripes.
+     */
+    private static int initialProbe() {
+        final int p = (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32);
+        return p == 0 ? 1 : p;
+    }
+
+    /**
+     * Xorshift step, as rehashed by {@link java.util.concurrent.atomic.LongAdder} on contention. Never returns 0 for a non zero probe.
+     */
+    private static int advanceProbe(int p) {
+        p ^= p << 13;
+        p ^= p >>> 17;
+        p ^= p << 5;
+        return p;
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+}
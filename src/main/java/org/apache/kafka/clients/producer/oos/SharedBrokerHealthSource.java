@@ -0,0 +1,84 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * {@link BrokerHealthSource} that delegates to the {@link SharedHealthRegistry} entry of the Kafka cluster being produced too. 
+ * The cluster ID is only known from the metadata, so the entry is acquired on first use and released on close.
+ */
+final class SharedBrokerHealthSource implements BrokerHealthSource {
+    private final String sourceType;
+    private final Supplier<BrokerHealthSource> sourceFactory;
+    private volatile SharedHealthRegistry.Entry entry;
+    private volatile SharedHealthRegistry.Fingerprints fingerprints = new SharedHealthRegistry.Fingerprints(null);
+    private boolean closed;
+
+    /**
+     * @param sourceType Class name of the health source
+     * @param sourceFactory Creates and configures the health source if this is the first partitioner for the cluster
+     */
+    SharedBrokerHealthSource(String sourceType, Supplier<BrokerHealthSource> sourceFactory) {
+        this.sourceType = sourceType;
+        this.sourceFactory = sourceFactory;
+    }
+
+    @Override
+    public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+        SharedHealthRegistry.Entry e = entry;
+        if (e == null) {
+            e = this.acquire(cluster);
+        }
+        SharedHealthRegistry.Fingerprints f = fingerprints;
+        if (!f.isFor(cluster)) {
+            f = new SharedHealthRegistry.Fingerprints(cluster);
+            fingerprints = f;
+        }
+        return e.unhealthyNodes(cluster, topics, f.of(topics));
+    }
+
+    private synchronized SharedHealthRegistry.Entry acquire(Cluster cluster) {
+        if (entry == null) {
+            if (closed) {
+                throw new IllegalStateException("Shared broker health source is closed");
+            }
+            final String clusterId = cluster.clusterResource().clusterId();
+            entry = SharedHealthRegistry.acquire(clusterId == null ? "" : clusterId, sourceType, sourceFactory);
+        }
+        return entry;
+    }
+
+    @Override
+    public long generation() {
+        final SharedHealthRegistry.Entry e = entry;
+        return e == null ? 0 : e.generation();
+    }
+
+    @Override
+    public void evictTopic(String topic) {
+        final SharedHealthRegistry.Entry e = entry;
+        if (e != null) {
+            e.evictTopic(topic);
+        }
+    }
+
+    /**
+     * @return Number of evaluations reused from other partitioners for the same cluster
+     */
+    long sharedHits() {
+        final SharedHealthRegistry.Entry e = entry;
+        return e == null ? 0 : e.hits();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (entry != null) {
+            entry.release();
+            entry = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM wide, reference counted, registry of Broker health shared by every partitioner producing to the same Kafka cluster. 
+ * 
+ * Each producer has its own Cluster metadata instances, so results are memoized by a fingerprint of the metadata 
+ * of the evaluated topics instead of by instance. Producers holding identical metadata then share a single evaluation, 
+ * and a single {@link BrokerHealthSource}, e.g. a single Admin client polling the Brokers. 
+ * Each partitioner still hashes a topic's metadata once per Cluster instance, see {@link Fingerprints}, which costs about as much 
+ * as {@link IsrBrokerHealthSource} evaluating it, so what's mostly saved is a polling source's own work and state.
+ */
+final class SharedHealthRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedHealthRegistry.class);
+    private static final Map<String, Entry> ENTRIES = new HashMap<>();
+    /** Max number of distinct topic sets memoized per cluster, past which the least recently used are dropped. */
+    static final int MAX_MEMOS = 10000;
+
+    private SharedHealthRegistry() {
+    }
+
+    /**
+     * Returns the shared health of a cluster, creating it if needed. Every call must be matched by a call to {@link Entry#release()}.
+     * 
+     * @param clusterId ID of the Kafka cluster
+     * @param sourceType Type of health source, so that partitioners configured with different sources don't share
+     * @param sourceFactory Creates and configures the health source, only called by the first partitioner for the cluster
+     * @return Shared health of the cluster
+     */
+    static Entry acquire(String clusterId, String sourceType, Supplier<BrokerHealthSource> sourceFactory) {
+        final String key = clusterId + "/" + sourceType;
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry == null) {
+                LOG.info("Sharing Broker health for Cluster `{}`", clusterId);
+                entry = new Entry(key, sourceFactory.get());
+                ENTRIES.put(key, entry);
+            }
+            entry.refs++;
+            return entry;
+        }
+    }
+
+    static final class Entry {
+        private final String key;
+        private final BrokerHealthSource source;
+        /** Last result per set of topics, replaced when the metadata or generation changes. Guarded by itself. */
+        private final Map<Set<String>, Memo> memos = new LinkedHashMap<Set<String>, Memo>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Set<String>, Memo> eldest) {
+                return this.size() > MAX_MEMOS;
+            }
+        };
+        private final LongAdder hits = new LongAdder();
+        private int refs;
+
+        private Entry(String key, BrokerHealthSource source) {
+            this.key = key;
+            this.source = source;
+        }
+
+        /**
+         * Returns the unhealthy nodes for the topics, reusing the last result if it was computed from identical metadata 
+         * and the same generation of the health source. The result is shared and must not be modified.
+         * 
+         * @param fingerprint Fingerprint of the topics' metadata, see {@link Fingerprints}
+         */
+        BitSet unhealthyNodes(Cluster cluster, Collection<String> topics, long fingerprint) {
+            final long generation = source.generation();
+            // Topics can be given as any collection, but are keyed as a Set so that lists and sets of the same topics share a memo
+            final Set<String> key = topics instanceof Set ? (Set<String>) topics : new HashSet<>(topics);
+            final Memo memo;
+            synchronized (memos) {
+                memo = memos.get(key);
+            }
+            if (memo != null && memo.generation == generation && memo.fingerprint == fingerprint) {
+                hits.increment();
+                return memo.nodes;
+            }
+
+            final BitSet nodes = source.unhealthyNodes(cluster, topics);
+            synchronized (memos) {
+                // Callers may reuse or change their collection, so a new key is copied, while a stale result keeps the existing key
+                memos.put(memo == null ? Collections.unmodifiableSet(new HashSet<>(key)) : key, new Memo(generation, fingerprint, nodes));
+            }
+            return nodes;
+        }
+
+        long generation() {
+            return source.generation();
+        }
+
+        /**
+         * Drops the topic's own memo and any state the health source keeps for it, even if other partitioners still use it, 
+         * in which case it's evaluated again on their next use.
+         */
+        void evictTopic(String topic) {
+            synchronized (memos) {
+                memos.remove(Collections.singleton(topic));
+            }
+            source.evictTopic(topic);
+        }
+
+        /**
+         * @return Number of evaluations that were reused from another partitioner
+         */
+        long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * Releases a reference, closing the health source once the last partitioner for the cluster has released it.
+         */
+        void release() {
+            synchronized (ENTRIES) {
+                if (--refs > 0) {
+                    return;
+                }
+                ENTRIES.remove(key, this);
+            }
+            Utils.closeQuietly(source, "shared broker health source");
+        }
+    }
+
+    private static final class Memo {
+        private final long generation;
+        private final long fingerprint;
+        private final BitSet nodes;
+
+        private Memo(long generation, long fingerprint, BitSet nodes) {
+            this.generation = generation;
+            this.fingerprint = fingerprint;
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Fingerprints of the topics of a single Cluster instance, so that a partitioner only hashes each topic's metadata once per refresh 
+     * rather than on every lookup, e.g. for the proxy topics that every topic's health is evaluated from.
+     */
+    static final class Fingerprints {
+        private final Cluster cluster;
+        private final ConcurrentMap<String, Long> topics = new ConcurrentHashMap<>();
+
+        Fingerprints(Cluster cluster) {
+            this.cluster = cluster;
+        }
+
+        boolean isFor(Cluster cluster) {
+            return this.cluster == cluster;
+        }
+
+        /**
+         * @return Fingerprint of the topics, combined independently of their iteration order
+         */
+        long of(Collection<String> topics) {
+            long fingerprint = 0;
+            for (String topic : topics) {
+                Long h = this.topics.get(topic);
+                if (h == null) {
+                    h = fingerprint(cluster, topic);
+                    this.topics.put(topic, h);
+                }
+                fingerprint += h;
+            }
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Hashes the leader, replicas and ISR of every partition of the topic, without allocating.
+     */
+    static long fingerprint(Cluster cluster, String topic) {
+        long h = mix(topic.hashCode());
+        for (PartitionInfo p : cluster.partitionsForTopic(topic)) {
+            h = mix(h + p.partition());
+            h = mix(h + (p.leader() == null ? -1 : p.leader().id()));
+            for (Node n : p.replicas()) {
+                h = mix(h + n.id());
+            }
+            h = mix(h - 1);
+            for (Node n : p.inSyncReplicas()) {
+                h = mix(h + n.id());
+            }
+            h = mix(h - 2);
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,78 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Current sticky partition of a topic along with when it was last used and how many bytes have been sent to it, 
+ * or its round robin position when partitioning round robin.
+ */
+final class StickyPartition {
+    static final int NO_PARTITION = -1;
+
+    private static final AtomicIntegerFieldUpdater<StickyPartition> PARTITION = 
+        AtomicIntegerFieldUpdater.newUpdater(StickyPartition.class, "partition");
+    private static final AtomicLongFieldUpdater<StickyPartition> PRODUCED_BYTES = 
+        AtomicLongFieldUpdater.newUpdater(StickyPartition.class, "producedBytes");
+
+    private volatile int partition = NO_PARTITION;
+    private volatile long lastAccessMs;
+    private volatile long producedBytes;
+    private volatile RoundRobinCounter roundRobin;
+
+    StickyPartition(long nowMs) {
+        this.lastAccessMs = nowMs;
+    }
+
+    int get() {
+        return partition;
+    }
+
+    boolean compareAndSet(int expect, int update) {
+        return PARTITION.compareAndSet(this, expect, update);
+    }
+
+    long lastAccessMs() {
+        return lastAccessMs;
+    }
+
+    /**
+     * Records an access, only writing when the time has moved by more than the resolution 
+     * so that threads sharing a topic aren't constantly invalidating each others cache line.
+     */
+    void touch(long nowMs, long resolutionMs) {
+        if (nowMs - lastAccessMs >= resolutionMs) {
+            lastAccessMs = nowMs;
+        }
+    }
+
+    /**
+     * Adds to the bytes produced to the current partition.
+     * 
+     * @param bytes Size of the record
+     * @param budget Bytes to produce to a partition before switching
+     * @return True for the single caller whose record used up the budget, which must reset it and switch partitions
+     */
+    boolean produced(int bytes, long budget) {
+        final long total = PRODUCED_BYTES.addAndGet(this, bytes);
+        return total >= budget && total - bytes < budget;
+    }
+
+    void resetProducedBytes() {
+        producedBytes = 0;
+    }
+
+    /**
+     * @param recordsPerPosition Number of consecutive records a thread sends to the same position
+     * @return Round robin position of the topic, created on first use
+     */
+    RoundRobinCounter roundRobin(int recordsPerPosition) {
+        RoundRobinCounter counter = roundRobin;
+        if (counter == null) {
+            // Racing threads may briefly use different counters, which only skips positions
+            counter = new RoundRobinCounter(recordsPerPosition);
+            roundRobin = counter;
+        }
+        return counter;
+    }
+}
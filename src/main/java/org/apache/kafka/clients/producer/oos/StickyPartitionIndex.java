@@ -0,0 +1,162 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the sticky partition per topic, optionally bounded in size and evicting topics that have gone idle.
+ * 
+ * Recency is tracked with a coarse last access time per topic rather than a global LRU list, 
+ * so reads never take a lock. Eviction is done in bulk by a single thread down to 90% of the max size, 
+ * keeping the cost of an eviction amortized over many new topics.
+ */
+final class StickyPartitionIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(StickyPartitionIndex.class);
+    static final long MAX_TOUCH_RESOLUTION_MS = 1000;
+
+    private final ConcurrentMap<String, StickyPartition> partitions = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final LongAdder evictions = new LongAdder();
+
+    private final Time time;
+    private final int maxTopics;
+    private final long idleMs;
+    private final long touchResolutionMs;
+    private final boolean bounded;
+    private final Consumer<String> onEviction;
+    private volatile long nextSweepMs;
+
+    /**
+     * @param time Clock used for recency
+     * @param maxTopics Max number of topics to keep
+     * @param idleMs Time after which an unused topic is evicted, or less then 1 to never evict idle topics
+     * @param onEviction Called with each evicted topic
+     */
+    StickyPartitionIndex(Time time, int maxTopics, long idleMs, Consumer<String> onEviction) {
+        this.time = time;
+        this.maxTopics = maxTopics;
+        this.idleMs = idleMs;
+        this.bounded = maxTopics < Integer.MAX_VALUE || idleMs > 0;
+        this.touchResolutionMs = idleMs > 0 ? Math.max(1, Math.min(MAX_TOUCH_RESOLUTION_MS, idleMs / 10)) : MAX_TOUCH_RESOLUTION_MS;
+        this.onEviction = onEviction;
+        this.nextSweepMs = idleMs > 0 ? time.milliseconds() + idleMs : Long.MAX_VALUE;
+    }
+
+    static StickyPartitionIndex unbounded() {
+        return new StickyPartitionIndex(Time.SYSTEM, Integer.MAX_VALUE, -1, t -> {});
+    }
+
+    /**
+     * @param topic Topic to Partition against
+     * @return Sticky partition of the topic or null if not yet known
+     */
+    StickyPartition get(String topic) {
+        final StickyPartition sticky = partitions.get(topic);
+        if (bounded && sticky != null) {
+            sticky.touch(time.milliseconds(), touchResolutionMs);
+        }
+        return sticky;
+    }
+
+    /**
+     * Returns the sticky partition of the topic, adding it if it is not known. 
+     * Also runs any pending eviction, as this is only called when batches roll over.
+     * 
+     * @param topic Topic to Partition against
+     * @return Sticky partition of the topic
+     */
+    StickyPartition getOrCreate(String topic) {
+        StickyPartition sticky = this.get(topic);
+        if (sticky == null) {
+            sticky = partitions.computeIfAbsent(topic, t -> new StickyPartition(time.milliseconds()));
+        }
+        if (bounded) {
+            this.maybeEvict(topic);
+        }
+        return sticky;
+    }
+
+    /**
+     * @return Number of topics currently held
+     */
+    int size() {
+        return partitions.size();
+    }
+
+    /**
+     * @return Number of topics evicted since creation
+     */
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Runs any pending eviction.
+     * 
+     * @param keep Topic that is in use by the caller and must not be evicted, or null
+     */
+    void maybeEvict(String keep) {
+        final long now = time.milliseconds();
+        if ((partitions.size() > maxTopics || now >= nextSweepMs) && evicting.compareAndSet(false, true)) {
+            try {
+                this.evict(now, keep);
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private void evict(long now, String keep) {
+        if (idleMs > 0) {
+            final long idleBefore = now - idleMs;
+            this.removeIf(idleBefore, Integer.MAX_VALUE, keep);
+            nextSweepMs = now + Math.max(1, idleMs / 2);
+        }
+
+        final int size = partitions.size();
+        if (size > maxTopics) {
+            // Evict the least recently used down to the low water mark, so that the next new topics don't trigger another scan. 
+            // Always keeps at least one topic, the one in use by the caller.
+            final int lowWater = Math.max(1, maxTopics - Math.max(1, maxTopics / 10));
+            final int toRemove = size - lowWater;
+            final long[] accessed = new long[size];
+            int count = 0;
+            for (StickyPartition p : partitions.values()) {
+                if (count == accessed.length) {
+                    break;
+                }
+                accessed[count++] = p.lastAccessMs();
+            }
+            Arrays.sort(accessed, 0, count);
+            this.removeIf(accessed[Math.min(toRemove, count) - 1], toRemove, keep);
+        }
+    }
+
+    /**
+     * Removes topics last accessed at or before the time, in no particular order, so ties with the cutoff are broken arbitrarily. 
+     * The kept topic is skipped, as it may have been created or accessed within the same tick as the cutoff.
+     */
+    private void removeIf(long accessedAtOrBefore, int limit, String keep) {
+        int removed = 0;
+        final Iterator<Map.Entry<String, StickyPartition>> it = partitions.entrySet().iterator();
+        while (it.hasNext() && removed < limit) {
+            final Map.Entry<String, StickyPartition> e = it.next();
+            if (e.getValue().lastAccessMs() <= accessedAtOrBefore && !e.getKey().equals(keep) && partitions.remove(e.getKey(), e.getValue())) {
+                removed++;
+                LOG.debug("Evicted topic `{}`", e.getKey());
+                onEviction.accept(e.getKey());
+            }
+        }
+        evictions.add(removed);
+    }
+}
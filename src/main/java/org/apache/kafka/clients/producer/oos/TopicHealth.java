@@ -0,0 +1,267 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Immutable view of which partitions of a topic are eligible to be published too for a single Cluster metadata instance.
+ * Partitions are kept as a primitive array so that picking a partition is O(1) and does not allocate.
+ */
+final class TopicHealth {
+    /** Max number of weighted picks that land on the current partition, before falling back to a uniform pick. */
+    static final int MAX_REPICKS = 8;
+
+    private final int numPartitions;
+    private final int[] partitions;
+    private final int pool;
+    private final int[] leaders;
+    private final BitSet excludedNodes;
+    private final int numExcludedNodes;
+    private final double[] weights;
+    private final AliasTable weightTable;
+    private final int[] suspects;
+    private final double spillShare;
+    private final PartitionLayout layout;
+    private volatile LatencyTable latencyTable;
+    private volatile Map<Integer, int[]> byLeader;
+    private volatile BitSet eligibleSet;
+    private volatile ConsistentHashRing ring;
+
+    /**
+     * @param numPartitions Total number of partitions for the topic, used when no partition is eligible
+     * @param partitions Eligible partition IDs
+     * @param leaders Leader Node ID of each eligible partition, or null if latency weighting isn't used
+     * @param excludedNodes Node IDs that have been excluded from being published too
+     * @param weights Relative weight, between 0 and 1, of each eligible partition, or null to weigh all equally
+     * @param pool Number of eligible partitions, from the start, that new partitions are picked from. 
+     *             Used to prefer partitions with a local leader, which are ordered first.
+     * @param suspects Excluded partitions that new partitions are spilled onto, or null
+     * @param spillShare Share of new partitions, between 0 and 1, to pick from the suspect partitions
+     * @param layout Layout of the available partitions the health was computed from, or null if it can't be reused
+     * @see LoadSpreadingCap
+     * @see #isComputedFrom(List, int, BitSet)
+     */
+    TopicHealth(int numPartitions, int[] partitions, int[] leaders, BitSet excludedNodes, double[] weights, int pool, int[] suspects, double spillShare, 
+            PartitionLayout layout) {
+        this.numPartitions = numPartitions;
+        this.partitions = partitions;
+        this.pool = pool;
+        this.leaders = leaders;
+        this.excludedNodes = excludedNodes;
+        this.numExcludedNodes = excludedNodes.cardinality();
+        this.weights = weights;
+        this.weightTable = weights == null || pool < 2 ? null : new AliasTable(Arrays.copyOf(weights, pool));
+        this.suspects = suspects == null || suspects.length < 1 ? null : suspects;
+        this.spillShare = this.suspects == null ? 0 : spillShare;
+        this.layout = layout;
+    }
+
+    /**
+     * Checks whether computing the health again would give the same result, so that it can be reused for a new Cluster instance. 
+     * Compares the available partitions against the layout they were computed from, which is cheaper than recomputing.
+     * 
+     * @param available Available partitions of the topic in the new Cluster
+     * @param numPartitions Total number of partitions of the topic in the new Cluster
+     * @param excluded Node IDs that are excluded in the new Cluster
+     * @return True if computed from the same partition states and excluded Nodes
+     */
+    boolean isComputedFrom(List<PartitionInfo> available, int numPartitions, BitSet excluded) {
+        return layout != null && numPartitions == this.numPartitions && excluded.equals(excludedNodes) && layout.matches(available);
+    }
+
+    int numPartitions() {
+        return numPartitions;
+    }
+
+    int numEligible() {
+        return partitions.length;
+    }
+
+    int numExcludedNodes() {
+        return numExcludedNodes;
+    }
+
+    BitSet excludedNodes() {
+        return excludedNodes;
+    }
+
+    /**
+     * @return Bitmap of the eligible partition IDs
+     */
+    BitSet eligibleSet() {
+        BitSet set = eligibleSet;
+        if (set == null) {
+            // Racing threads build identical sets, so there is no need to synchronize
+            set = new BitSet(numPartitions);
+            for (int p : partitions) {
+                set.set(p);
+            }
+            eligibleSet = set;
+        }
+        return set;
+    }
+
+    /**
+     * Maps a key to its home partition, the same as Kafka's default partitioner does. 
+     * If the home partition isn't eligible the key is remapped through a consistent hash ring over the eligible partitions,
+     * so only the keys of excluded partitions move and they move back once their partition is eligible again.
+     * 
+     * @param keyHash murmur2 hash of the serialized key
+     * @return Partition ID for the key
+     */
+    int partitionForKey(int keyHash) {
+        final int home = Utils.toPositive(keyHash) % numPartitions;
+        if (partitions.length < 1 || this.eligibleSet().get(home)) {
+            return home;
+        }
+
+        ConsistentHashRing r = ring;
+        if (r == null) {
+            r = new ConsistentHashRing(partitions);
+            ring = r;
+        }
+        return r.partition(keyHash);
+    }
+
+    /**
+     * @return Bitmap of all the topic's partition IDs
+     */
+    BitSet allPartitions() {
+        final BitSet set = new BitSet(numPartitions);
+        set.set(0, numPartitions);
+        return set;
+    }
+
+    /**
+     * Picks a random eligible partition from the pool that differs from the current one when possible.
+     * Partitions are picked proportionally to their weight through an alias table, so weighting is O(1) per pick. 
+     * When spilling load a share of picks is instead a random excluded partition. 
+     * Falls back to a random partition out of all the topic's partitions when none are eligible.
+     * 
+     * @param currentPartition Partition currently being published too or -1
+     * @param latencyWeights Weight of the partitions' leaders, or null to only use the partitions' own weights
+     * @return New partition ID
+     */
+    int nextPartition(int currentPartition, NodeLatencies.Weights latencyWeights) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (partitions.length < 1) {
+            return Utils.toPositive(random.nextInt()) % numPartitions;
+        } else if (suspects != null && random.nextDouble() < spillShare) {
+            final int newPart = suspects[random.nextInt(suspects.length)];
+            if (newPart != currentPartition) {
+                return newPart;
+            }
+        }
+
+        if (pool == 1) {
+            return partitions[0];
+        }
+
+        final AliasTable table = latencyWeights == null || leaders == null ? weightTable : this.latencyTable(latencyWeights);
+        if (table != null) {
+            for (int repicks = 0; repicks < MAX_REPICKS; repicks++) {
+                final int newPart = partitions[table.sample(random)];
+                if (newPart != currentPartition) {
+                    return newPart;
+                }
+            }
+        }
+
+        while (true) {
+            final int newPart = partitions[random.nextInt(pool)];
+            if (newPart != currentPartition) {
+                return newPart;
+            }
+        }
+    }
+
+    /**
+     * Maps a round robin position onto the pool, cycling through its partitions evenly regardless of their weights. 
+     * Falls back to cycling through all the topic's partitions when none are eligible.
+     * 
+     * @param position Non negative round robin position
+     * @return Partition ID
+     */
+    int partitionAt(long position) {
+        if (partitions.length < 1) {
+            return (int) (position % numPartitions);
+        }
+        return partitions[(int) (position % pool)];
+    }
+
+    /**
+     * Picks the leader of a random partition from the pool, weighted the same way as picking a partition is.
+     * 
+     * @param latencyWeights Weight of the partitions' leaders, or null to only use the partitions' own weights
+     * @return Node ID, or -1 if leaders aren't known or no partition is eligible
+     */
+    int nextLeader(NodeLatencies.Weights latencyWeights) {
+        if (partitions.length < 1 || leaders == null) {
+            return -1;
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final AliasTable table = latencyWeights == null ? weightTable : this.latencyTable(latencyWeights);
+        return leaders[table == null ? random.nextInt(pool) : table.sample(random)];
+    }
+
+    /**
+     * @param nodeId Leader Node ID
+     * @return Partitions in the pool led by the Node, or null if there are none or leaders aren't known
+     */
+    int[] partitionsLedBy(int nodeId) {
+        if (leaders == null) {
+            return null;
+        }
+        Map<Integer, int[]> led = byLeader;
+        if (led == null) {
+            final Map<Integer, Integer> counts = new HashMap<>();
+            for (int i = 0; i < pool; i++) {
+                counts.merge(leaders[i], 1, Integer::sum);
+            }
+            final Map<Integer, Integer> filled = new HashMap<>();
+            led = new HashMap<>();
+            for (int i = 0; i < pool; i++) {
+                final int[] nodePartitions = led.computeIfAbsent(leaders[i], n -> new int[counts.get(n)]);
+                nodePartitions[filled.merge(leaders[i], 1, Integer::sum) - 1] = partitions[i];
+            }
+            byLeader = led;
+        }
+        return led.get(nodeId);
+    }
+
+    /**
+     * Returns the alias table for the partitions' own weights combined with the latency weights of their leaders, 
+     * only rebuilding it when the latency weights have been refreshed.
+     */
+    private AliasTable latencyTable(NodeLatencies.Weights latencyWeights) {
+        final LatencyTable cached = latencyTable;
+        if (cached != null && cached.latencyWeights == latencyWeights) {
+            return cached.table;
+        }
+
+        final double[] combined = new double[pool];
+        for (int i = 0; i < pool; i++) {
+            combined[i] = (weights == null ? 1 : weights[i]) * latencyWeights.weight(leaders[i]);
+        }
+        final AliasTable table = new AliasTable(combined);
+        latencyTable = new LatencyTable(latencyWeights, table);
+        return table;
+    }
+
+    private static final class LatencyTable {
+        private final NodeLatencies.Weights latencyWeights;
+        private final AliasTable table;
+
+        private LatencyTable(NodeLatencies.Weights latencyWeights, AliasTable table) {
+            this.latencyWeights = latencyWeights;
+            this.table = table;
+        }
+    }
+}
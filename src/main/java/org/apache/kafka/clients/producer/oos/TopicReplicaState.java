@@ -0,0 +1,202 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Out of sync replicas of every available partition of a topic, along with how many of each Broker's replicas are out of the ISR. 
+ * Each new Cluster metadata instance is diffed against the previous one so that only the lagging counts of the partitions whose replicas 
+ * or ISR changed are patched, falling back to rebuilding from scratch when too many partitions changed for patching to pay off.
+ * 
+ * Only the IDs of each partition's out of sync replicas are kept, sharing a single empty array for fully in sync partitions, 
+ * as they are all that the lagging counts depend on. Diffing then reads the new metadata once, the same as counting from scratch does, 
+ * and old Cluster instances aren't retained. Applying Cluster instances out of order is fine, as the diff is always against the last one applied. 
+ * 
+ * The producer builds new PartitionInfo instances on every refresh without saying which changed, so every partition is still read once. 
+ * What patching saves is recounting and reallocating the state of the unchanged partitions, not reading them.
+ */
+final class TopicReplicaState {
+    private static final Logger LOG = LoggerFactory.getLogger(TopicReplicaState.class);
+    /** Share of partitions that can change before rebuilding instead of patching. */
+    static final double MAX_CHANGED_RATIO = 0.25;
+    private static final int[] IN_SYNC = new int[0];
+
+    private final String topic;
+    /** Out of sync replica IDs of each partition by partition ID, null when unavailable. */
+    private int[][] partitions = new int[0][];
+    private final Map<Integer, Integer> laggingReplicas = new HashMap<>();
+    private final BitSet outOfSyncNodes = new BitSet();
+
+    TopicReplicaState(String topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * Brings the state up to date with the Cluster metadata.
+     * 
+     * @param cluster Cluster Metadata state
+     * @return Number of partitions that changed, or -1 if the state was rebuilt
+     */
+    synchronized int update(Cluster cluster) {
+        final List<PartitionInfo> available = cluster.availablePartitionsForTopic(topic);
+        final Integer count = cluster.partitionCountForTopic(topic);
+        final int numPartitions = count == null ? 0 : count;
+        if (numPartitions != partitions.length) {
+            this.rebuild(available, numPartitions);
+            return -1;
+        }
+
+        final BitSet seen = new BitSet(numPartitions);
+        List<PartitionInfo> changed = null;
+        for (PartitionInfo p : available) {
+            if (p.partition() >= numPartitions) {
+                this.rebuild(available, numPartitions);
+                return -1;
+            }
+            seen.set(p.partition());
+            if (!isLagging(partitions[p.partition()], p)) {
+                if (changed == null) {
+                    changed = new ArrayList<>();
+                }
+                changed.add(p);
+            }
+        }
+        // Partitions that are no longer available
+        BitSet gone = null;
+        for (int p = seen.nextClearBit(0); p < numPartitions; p = seen.nextClearBit(p + 1)) {
+            if (partitions[p] != null) {
+                if (gone == null) {
+                    gone = new BitSet(numPartitions);
+                }
+                gone.set(p);
+            }
+        }
+
+        final int numChanged = (changed == null ? 0 : changed.size()) + (gone == null ? 0 : gone.cardinality());
+        if (numChanged > numPartitions * MAX_CHANGED_RATIO) {
+            this.rebuild(available, numPartitions);
+            return -1;
+        }
+        if (gone != null) {
+            for (int p = gone.nextSetBit(0); p >= 0; p = gone.nextSetBit(p + 1)) {
+                this.count(partitions[p], -1);
+                partitions[p] = null;
+            }
+        }
+        if (changed != null) {
+            for (PartitionInfo p : changed) {
+                this.count(partitions[p.partition()], -1);
+                this.put(p);
+            }
+        }
+        if (numChanged > 0 && LOG.isDebugEnabled()) {
+            LOG.debug("Patched replica state: T=`{}` Changed=`{}` OutOfSync=`{}`", topic, numChanged, outOfSyncNodes);
+        }
+        return numChanged;
+    }
+
+    private void rebuild(List<PartitionInfo> available, int numPartitions) {
+        LOG.debug("Rebuilding replica state: T=`{}`", topic);
+        partitions = new int[numPartitions][];
+        laggingReplicas.clear();
+        outOfSyncNodes.clear();
+        for (PartitionInfo p : available) {
+            if (p.partition() < numPartitions) {
+                this.put(p);
+            }
+        }
+    }
+
+    private void put(PartitionInfo p) {
+        final int[] lagging = laggingIds(p);
+        partitions[p.partition()] = lagging;
+        this.count(lagging, 1);
+    }
+
+    /**
+     * Adds or removes the out of sync replicas from the lagging counts.
+     */
+    private void count(int[] lagging, int delta) {
+        if (lagging == null) {
+            return;
+        }
+        for (int id : lagging) {
+            final Integer replicas = laggingReplicas.merge(id, delta, Integer::sum);
+            if (replicas <= 0) {
+                laggingReplicas.remove(id);
+                outOfSyncNodes.clear(id);
+            } else {
+                outOfSyncNodes.set(id);
+            }
+        }
+    }
+
+    /**
+     * @param into Bitmap to add the Node IDs with at least one out of sync replica of the topic too
+     */
+    synchronized void addOutOfSyncNodes(BitSet into) {
+        into.or(outOfSyncNodes);
+    }
+
+    /**
+     * @param nodeId Broker Node ID
+     * @return Number of the broker's replicas of the topic that are not in their partition's ISR
+     */
+    synchronized int laggingReplicas(int nodeId) {
+        return laggingReplicas.getOrDefault(nodeId, 0);
+    }
+
+    /**
+     * @return IDs of the partition's replicas that are not in its ISR, in replica order
+     */
+    private static int[] laggingIds(PartitionInfo p) {
+        final Node[] isr = p.inSyncReplicas();
+        int[] ids = IN_SYNC;
+        for (Node n : p.replicas()) {
+            if (!contains(isr, n.id())) {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = n.id();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Checks the partition's out of sync replicas against previously recorded ones without allocating.
+     * 
+     * @param lagging Out of sync replica IDs, or null
+     * @return True if the same replicas, in order, are out of sync
+     */
+    private static boolean isLagging(int[] lagging, PartitionInfo p) {
+        if (lagging == null) {
+            return false;
+        }
+        final Node[] isr = p.inSyncReplicas();
+        int i = 0;
+        for (Node n : p.replicas()) {
+            if (!contains(isr, n.id()) && (i >= lagging.length || lagging[i++] != n.id())) {
+                return false;
+            }
+        }
+        return i == lagging.length;
+    }
+
+    private static boolean contains(Node[] nodes, int id) {
+        for (Node n : nodes) {
+            if (n.id() == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
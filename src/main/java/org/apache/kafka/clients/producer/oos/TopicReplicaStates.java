@@ -0,0 +1,43 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.kafka.common.Cluster;
+
+/**
+ * {@link TopicReplicaState} of each evaluated topic, kept between metadata refreshes. 
+ * A topic's state is dropped once it leaves the Cluster metadata, or once the partition cache evicts the topic.
+ */
+final class TopicReplicaStates {
+    private final ConcurrentMap<String, TopicReplicaState> states = new ConcurrentHashMap<>();
+    private volatile Cluster pruned;
+
+    /**
+     * Returns the topic's state, which callers must update with the Cluster metadata and read while synchronized on it, 
+     * so that another Cluster instance isn't applied in between.
+     * 
+     * @param cluster Cluster Metadata state
+     * @param topic Topic to evaluate
+     * @return State of the topic, or null if it isn't in the metadata
+     */
+    TopicReplicaState get(Cluster cluster, String topic) {
+        if (pruned != cluster) {
+            // Once per Cluster instance, drop the state of topics that have left the metadata
+            pruned = cluster;
+            states.keySet().removeIf(t -> cluster.partitionCountForTopic(t) == null);
+        }
+        if (cluster.partitionCountForTopic(topic) == null) {
+            return null;
+        }
+        return states.computeIfAbsent(topic, TopicReplicaState::new);
+    }
+
+    void remove(String topic) {
+        states.remove(topic);
+    }
+
+    int size() {
+        return states.size();
+    }
+}
@@ -0,0 +1,28 @@
+package org.apache.kafka.clients.producer.oos;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+
+/**
+ * {@link ExclusionPolicy} that only excludes the partitions that are themselves under replicated in the producer's metadata, 
+ * instead of every partition led by a Broker hosting a lagging replica. The {@link BrokerHealthSource} isn't consulted.
+ */
+public class UnderReplicatedExclusionPolicy implements ExclusionPolicy {
+    @Override
+    public BitSet excludedNodes(Cluster cluster, Collection<String> topics, BitSet unhealthyNodes) {
+        return new BitSet();
+    }
+
+    @Override
+    public boolean excludesPartitions() {
+        return true;
+    }
+
+    @Override
+    public boolean isExcluded(PartitionInfo partition) {
+        return partition.inSyncReplicas().length < partition.replicas().length;
+    }
+}
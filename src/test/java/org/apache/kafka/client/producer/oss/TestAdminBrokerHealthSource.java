@@ -0,0 +1,176 @@
+package org.apache.kafka.client.producer.oss;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.MockAdminClient;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.AdminBrokerHealthSource;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectStickyPartitionCache;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestAdminBrokerHealthSource {
+    private static final Node[] NODES = new Node[]{
+        // MockAdminClient looks Brokers up by ID as an index
+        new Node(0, "localhost", 9091),
+        new Node(1, "localhost", 9092),
+        new Node(2, "localhost", 9093)
+    };
+    private static MockAdminClient admin;
+    private static volatile Map<Integer, Map<TopicPartition, Long>> sizes = Collections.emptyMap();
+
+    /**
+     * Polls the shared MockAdminClient, which doesn't support describing log dirs, so sizes are given directly
+     */
+    public static class MockAdminHealthSource extends AdminBrokerHealthSource {
+        @Override
+        protected Admin createAdmin(Map<String, Object> adminConfigs) {
+            return admin;
+        }
+
+        @Override
+        protected Map<Integer, Map<TopicPartition, Long>> replicaSizes(Collection<Integer> brokers) {
+            return sizes;
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        admin = new MockAdminClient(Arrays.asList(NODES), NODES[0]);
+        sizes = Collections.emptyMap();
+        describeTopic(false);
+    }
+
+    @AfterEach
+    public void teardown() {
+        admin.close();
+    }
+
+    static void describeTopic(boolean lagging) {
+        final List<Node> nodes = Arrays.asList(NODES);
+        admin.deleteTopics(Collections.singleton("test"));
+        // When lagging Node 2 drops out of the ISR of partition 0
+        admin.addTopic(false, "test", Arrays.asList(
+            new TopicPartitionInfo(0, NODES[0], nodes, lagging ? Arrays.asList(NODES[0], NODES[1]) : nodes),
+            new TopicPartitionInfo(1, NODES[1], nodes, nodes),
+            new TopicPartitionInfo(2, NODES[2], nodes, nodes)
+        ), Collections.emptyMap());
+    }
+
+    static Cluster cluster() {
+        // The producer's metadata always sees everything in sync
+        return new Cluster("abc", Arrays.asList(NODES), Arrays.asList(
+            new PartitionInfo("test", 0, NODES[0], NODES, NODES),
+            new PartitionInfo("test", 1, NODES[1], NODES, NODES),
+            new PartitionInfo("test", 2, NODES[2], NODES, NODES)
+        ), Collections.emptySet(), Collections.emptySet());
+    }
+
+    static boolean usesPartition(OutOfSyncRedirectStickyPartitionCache cache, Cluster c, int partition) {
+        for (int rolls = 0; rolls < 300; rolls++) {
+            if (cache.nextPartition("test", c, cache.partition("test", c)) == partition) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the health to be polled");
+            Thread.sleep(20);
+        }
+    }
+
+    static OutOfSyncRedirectStickyPartitionCache cache(long maxLagBytes) {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SOURCE_CONFIG, MockAdminHealthSource.class);
+        configs.put(AdminBrokerHealthSource.Config.POLL_MS_CONFIG, 20L);
+        configs.put(AdminBrokerHealthSource.Config.MAX_LAG_BYTES_CONFIG, maxLagBytes);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        return cache;
+    }
+
+    @Test
+    public void testIsrChangesWithoutMetadataRefresh() throws InterruptedException {
+        final OutOfSyncRedirectStickyPartitionCache cache = cache(0);
+        // The same Cluster instance is used throughout, as if metadata was never refreshed
+        final Cluster c = cluster();
+        assertTrue(usesPartition(cache, c, 2));
+
+        describeTopic(true);
+        waitFor(() -> !usesPartition(cache, c, 2));
+
+        describeTopic(false);
+        waitFor(() -> usesPartition(cache, c, 2));
+        cache.close();
+    }
+
+    @Test
+    public void testDeletedTopicDoesNotFailPoll() throws InterruptedException {
+        final OutOfSyncRedirectStickyPartitionCache cache = cache(0);
+        // The producer's metadata still has a topic that the Brokers no longer know about
+        final List<PartitionInfo> partitions = new ArrayList<>(cluster().partitionsForTopic("test"));
+        partitions.add(new PartitionInfo("deleted", 0, NODES[0], NODES, NODES));
+        final Cluster c = new Cluster("abc", Arrays.asList(NODES), partitions, Collections.emptySet(), Collections.emptySet());
+        cache.partition("deleted", c);
+        assertTrue(usesPartition(cache, c, 2));
+
+        describeTopic(true);
+        waitFor(() -> !usesPartition(cache, c, 2));
+        cache.close();
+    }
+
+    @Test
+    public void testPolledIsrOverridesMetadata() throws InterruptedException {
+        final OutOfSyncRedirectStickyPartitionCache cache = cache(0);
+        // The producer's metadata is stale, still seeing Node 2 out of the ISR of partition 0 which the Brokers have since readmitted
+        final Cluster c = new Cluster("abc", Arrays.asList(NODES), Arrays.asList(
+            new PartitionInfo("test", 0, NODES[0], NODES, new Node[]{NODES[0], NODES[1]}),
+            new PartitionInfo("test", 1, NODES[1], NODES, NODES),
+            new PartitionInfo("test", 2, NODES[2], NODES, NODES)
+        ), Collections.emptySet(), Collections.emptySet());
+        waitFor(() -> usesPartition(cache, c, 2));
+        cache.close();
+    }
+
+    @Test
+    public void testLaggingReplicaSize() throws InterruptedException {
+        final OutOfSyncRedirectStickyPartitionCache cache = cache(1000);
+        final Cluster c = cluster();
+        assertTrue(usesPartition(cache, c, 1));
+
+        // Node 1's replica of partition 0 is still in the ISR but far behind the leader
+        final TopicPartition tp = new TopicPartition("test", 0);
+        final Map<Integer, Map<TopicPartition, Long>> lagging = new HashMap<>();
+        lagging.put(0, Collections.singletonMap(tp, 10000L));
+        lagging.put(1, Collections.singletonMap(tp, 5000L));
+        lagging.put(2, Collections.singletonMap(tp, 9500L));
+        sizes = lagging;
+        waitFor(() -> !usesPartition(cache, c, 1));
+        // Within the allowed lag
+        assertTrue(usesPartition(cache, c, 2));
+        assertFalse(usesPartition(cache, c, 1));
+        cache.close();
+    }
+}
@@ -0,0 +1,167 @@
+package org.apache.kafka.client.producer.oss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.kafka.clients.producer.oos.MappedBrokerHealthSource;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.jupiter.api.Test;
+
+public class TestMappedBrokerHealthSource {
+    private static final Node[] NODES = new Node[]{
+        new Node(1, "localhost", 9091),
+        new Node(2, "localhost", 9092),
+        new Node(3, "localhost", 9093)
+    };
+
+    static Cluster cluster(String clusterId, boolean lagging) {
+        // When lagging, Node 3 is out of sync on partition 0
+        return new Cluster(clusterId, Arrays.asList(NODES), Arrays.asList(
+            new PartitionInfo("test", 0, NODES[0], NODES, lagging ? new Node[]{NODES[0], NODES[1]} : NODES),
+            new PartitionInfo("test", 1, NODES[1], NODES, NODES),
+            new PartitionInfo("test", 2, NODES[2], NODES, NODES)
+        ), Collections.emptySet(), Collections.emptySet());
+    }
+
+    static MappedBrokerHealthSource source(File file, String mode, long maxAgeMs) {
+        return source(file, mode, maxAgeMs, 65535);
+    }
+
+    static MappedBrokerHealthSource source(File file, String mode, long maxAgeMs, int maxNodeId) {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(MappedBrokerHealthSource.Config.MAX_NODE_ID_CONFIG, maxNodeId);
+        configs.put(MappedBrokerHealthSource.Config.FILE_CONFIG, file.getAbsolutePath());
+        configs.put(MappedBrokerHealthSource.Config.MODE_CONFIG, mode);
+        configs.put(MappedBrokerHealthSource.Config.PUBLISH_MS_CONFIG, 10L);
+        configs.put(MappedBrokerHealthSource.Config.MAX_AGE_MS_CONFIG, maxAgeMs);
+        final MappedBrokerHealthSource source = new MappedBrokerHealthSource();
+        source.configure(configs);
+        return source;
+    }
+
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testPublishSubscribe() throws Exception {
+        final File file = File.createTempFile("oos-health", ".map");
+        file.deleteOnExit();
+        final MappedBrokerHealthSource subscriber = source(file, MappedBrokerHealthSource.Config.MODE_SUBSCRIBE, 200L);
+        final MappedBrokerHealthSource publisher = source(file, MappedBrokerHealthSource.Config.MODE_PUBLISH, 200L);
+
+        // The subscriber's own metadata is healthy, only the publisher sees Node 3 out of sync
+        final Cluster healthy = cluster("abc", false);
+        final long generation = subscriber.generation();
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).get(3));
+        assertNotEquals(generation, subscriber.generation());
+
+        // Health published for another cluster is ignored
+        assertTrue(subscriber.unhealthyNodes(cluster("other", false), Collections.singleton("test")).isEmpty());
+
+        publisher.unhealthyNodes(cluster("abc", false), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).isEmpty());
+
+        // Once the publisher stops, its last health goes stale and the subscriber falls back to its own metadata
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).get(3));
+        publisher.close();
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).isEmpty());
+        subscriber.close();
+    }
+
+    @Test
+    public void testRemapsReplacedFile() throws Exception {
+        final File file = File.createTempFile("oos-health", ".map");
+        file.deleteOnExit();
+        final MappedBrokerHealthSource subscriber = source(file, MappedBrokerHealthSource.Config.MODE_SUBSCRIBE, 200L);
+        final Cluster healthy = cluster("abc", false);
+        MappedBrokerHealthSource publisher = source(file, MappedBrokerHealthSource.Config.MODE_PUBLISH, 200L);
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).get(3));
+        publisher.close();
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).isEmpty());
+
+        // A restarted publisher recreates the file
+        Files.delete(file.toPath());
+        publisher = source(file, MappedBrokerHealthSource.Config.MODE_PUBLISH, 200L);
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).get(3));
+        publisher.close();
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).isEmpty());
+
+        // Or takes it over and shrinks it
+        publisher = source(file, MappedBrokerHealthSource.Config.MODE_PUBLISH, 200L, 63);
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+        waitFor(() -> subscriber.unhealthyNodes(healthy, Collections.singleton("test")).get(3));
+        publisher.close();
+        subscriber.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Subscribes from a separate JVM, exiting once Node 3 is seen excluded, with a failure if any other Broker is
+     */
+    public static void main(String[] args) throws Exception {
+        final MappedBrokerHealthSource subscriber = source(new File(args[0]), MappedBrokerHealthSource.Config.MODE_SUBSCRIBE, 10000L);
+        final Cluster healthy = cluster("abc", false);
+        BitSet nodes;
+        do {
+            Thread.sleep(10);
+            nodes = subscriber.unhealthyNodes(healthy, Collections.singleton("test"));
+        } while (!nodes.get(3));
+        subscriber.close();
+        System.exit(nodes.cardinality() == 1 ? 0 : 1);
+    }
+
+    @Test
+    public void testSubscribeFromAnotherProcess() throws Exception {
+        final File file = File.createTempFile("oos-health", ".map");
+        file.deleteOnExit();
+        final MappedBrokerHealthSource publisher = source(file, MappedBrokerHealthSource.Config.MODE_PUBLISH, 10000L);
+        publisher.unhealthyNodes(cluster("abc", true), Collections.singleton("test"));
+
+        final File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+        final Process process = new ProcessBuilder(java.getAbsolutePath(), "-cp", System.getProperty("java.class.path"), 
+                TestMappedBrokerHealthSource.class.getName(), file.getAbsolutePath())
+            .redirectErrorStream(true)
+            .start();
+        try {
+            assertTrue(process.waitFor(30, TimeUnit.SECONDS), "Subscriber process timed out");
+            final StringBuilder output = new StringBuilder();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    output.append(line).append('\n');
+                }
+            }
+            assertEquals(0, process.exitValue(), output.toString());
+        } finally {
+            process.destroyForcibly();
+            publisher.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
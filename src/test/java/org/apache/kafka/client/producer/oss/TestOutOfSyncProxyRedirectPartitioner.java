@@ -1,27 +1,36 @@
 package org.apache.kafka.client.producer.oss;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.kafka.clients.producer.MockProducer;
 import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.oos.IsrBrokerHealthSource;
 import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectPartitioner;
 import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectStickyPartitionCache;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.junit.jupiter.api.Test;
 
@@ -150,4 +159,92 @@ public class TestOutOfSyncProxyRedirectPartitioner {
         }
         producer.close();
     }
+
+    static Cluster criticalCluster(boolean lagging) {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+        // Node 2 lags on the second critical topic only
+        return new Cluster("abc", Arrays.asList(nodes), Arrays.asList(
+            new PartitionInfo("test", 0, nodes[0], nodes, nodes),
+            new PartitionInfo("test", 1, nodes[1], nodes, nodes),
+            new PartitionInfo("test", 2, nodes[2], nodes, nodes),
+            new PartitionInfo("critical_a", 0, nodes[0], nodes, nodes),
+            new PartitionInfo("critical_b", 0, nodes[2], nodes, lagging ? new Node[]{nodes[0], nodes[2]} : nodes)
+        ), Collections.emptySet(), Collections.emptySet());
+    }
+
+    static Set<Integer> usedPartitions(Map<String, Object> configs, Cluster c) {
+        final OutOfSyncProxyRedirectStickyPartitionCache cache = new OutOfSyncProxyRedirectStickyPartitionCache();
+        cache.configure(configs);
+        final Set<Integer> used = new HashSet<>();
+        int part = cache.partition("test", c);
+        for (int rolls = 0; rolls < 300; rolls++) {
+            part = cache.nextPartition("test", c, part);
+            used.add(part);
+        }
+        cache.close();
+        return used;
+    }
+
+    @Test
+    public void testMultipleProxyTopics(){
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, "critical_a,critical_b");
+
+        assertEquals(new HashSet<>(Arrays.asList(0, 2)), usedPartitions(configs, criticalCluster(true)));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), usedPartitions(configs, criticalCluster(false)));
+
+        // Only the first topic doesn't see the lag
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, "critical_a");
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), usedPartitions(configs, criticalCluster(true)));
+    }
+
+    /**
+     * Counts evaluations separately from the other tests' sources, so that their counts don't depend on the order tests run in
+     */
+    public static class CountingHealthSource extends IsrBrokerHealthSource {
+        static final AtomicInteger EVALUATIONS = new AtomicInteger();
+
+        @Override
+        public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+            EVALUATIONS.incrementAndGet();
+            return super.unhealthyNodes(cluster, topics);
+        }
+    }
+
+    @Test
+    public void testSharedHealthOfProxyTopicList(){
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_CONFIG, "critical_b,critical_a");
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.HEALTH_SHARED_CONFIG, true);
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.HEALTH_SOURCE_CONFIG, CountingHealthSource.class);
+
+        final OutOfSyncProxyRedirectStickyPartitionCache cache = new OutOfSyncProxyRedirectStickyPartitionCache();
+        cache.configure(configs);
+        final int evaluations = CountingHealthSource.EVALUATIONS.get();
+        // Identical metadata in new Cluster instances is evaluated once
+        for (int refreshes = 0; refreshes < 2; refreshes++) {
+            final Cluster c = criticalCluster(true);
+            cache.nextPartition("test", c, cache.partition("test", c));
+        }
+        assertEquals(evaluations + 1, CountingHealthSource.EVALUATIONS.get());
+        cache.close();
+    }
+
+    @Test
+    public void testProxyTopicPattern(){
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_PATTERN_CONFIG, "critical_.*");
+
+        assertEquals(new HashSet<>(Arrays.asList(0, 2)), usedPartitions(configs, criticalCluster(true)));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), usedPartitions(configs, criticalCluster(false)));
+
+        configs.put(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_PATTERN_CONFIG, "[");
+        assertThrows(ConfigException.class, () -> new OutOfSyncProxyRedirectStickyPartitionCache().configure(configs));
+        configs.remove(OutOfSyncProxyRedirectStickyPartitionCache.Config.PROXY_TOPIC_PATTERN_CONFIG);
+        assertThrows(ConfigException.class, () -> new OutOfSyncProxyRedirectStickyPartitionCache().configure(configs));
+    }
 }
@@ -1,19 +1,32 @@
 package org.apache.kafka.client.producer.oss;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.HealthTransitionEvent;
+import org.apache.kafka.clients.producer.oos.HealthTransitionListener;
 import org.apache.kafka.clients.producer.oos.OutOfSyncProxyRedirectPartitioner;
 import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectPartitioner;
 import org.apache.kafka.common.Cluster;
@@ -83,6 +96,167 @@ public class TestOutOfSyncRedirectPartitioner {
         producer.close();
     }
 
+    @Test
+    public void testClusterHealthScope() throws InterruptedException, ExecutionException{
+        final Node[] nodes = new Node[]{GoodCluster.nodeById(1), GoodCluster.nodeById(2), GoodCluster.nodeById(3)};
+        final List<PartitionInfo> partitions = new LinkedList<>(GoodCluster.partitionsForTopic("test"));
+        // Node 1 is only out of sync for another topic
+        partitions.add(new PartitionInfo("other", 0, nodes[1], nodes, new Node[]{nodes[1], nodes[2]}));
+        final Cluster cluster = new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SCOPE_CONFIG, AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SCOPE_CLUSTER);
+
+        Partitioner p = new OutOfSyncRedirectPartitioner();
+        p.configure(configs);
+
+        Producer<byte[], byte[]> producer = new MockProducer<>(cluster, true, p, new ByteArraySerializer(), new ByteArraySerializer());
+
+        int count = 0;
+        while(count < 10000){
+            count++;
+            Future<RecordMetadata> f = producer.send(new ProducerRecord<byte[],byte[]>("test", null, testBytes));
+            RecordMetadata m = f.get();
+
+            assertNotNull(m.partition());
+            assertTrue(m.partition() >= 1 && m.partition() <=2, "Partition was an invalid one");
+        }
+
+        producer.close();
+    }
+
+    @Test
+    public void testAsyncHealthEvaluation() throws InterruptedException{
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_ASYNC_CONFIG, true);
+
+        Partitioner p = new OutOfSyncRedirectPartitioner();
+        p.configure(configs);
+        p.partition("test", null, null, null, testBytes, GoodCluster);
+
+        // The new metadata is evaluated in the background, so keep rolling batches until it has been published
+        final long deadline = System.currentTimeMillis() + 10000;
+        int valid = 0;
+        while(valid < 1000){
+            assertTrue(System.currentTimeMillis() < deadline, "New health was never published");
+            final int prev = p.partition("test", null, null, null, testBytes, BadCluster);
+            p.onNewBatch("test", BadCluster, prev);
+            final int next = p.partition("test", null, null, null, testBytes, BadCluster);
+            valid = next >= 1 && next <= 3 ? valid + 1 : 0;
+            if (valid == 0){
+                Thread.sleep(1);
+            }
+        }
+
+        p.close();
+    }
+
+    @Test
+    public void testMetrics() throws Exception{
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.CLIENT_ID_CONFIG, "oos-metrics-test");
+
+        Partitioner p = new OutOfSyncRedirectPartitioner();
+        p.configure(configs);
+        for(int rolls = 0; rolls < 10; rolls++){
+            p.onNewBatch("test", BadCluster, p.partition("test", null, null, null, testBytes, BadCluster));
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName topicMetrics = new ObjectName("kafka.producer.oos:type=oos-partitioner-topic-metrics,client-id=oos-metrics-test,topic=test");
+        assertEquals(11.0, server.getAttribute(topicMetrics, "batch-roll-total"));
+        assertEquals(11.0, server.getAttribute(topicMetrics, "redirect-total"));
+        assertEquals(0.0, server.getAttribute(topicMetrics, "fallback-total"));
+        assertEquals(2, server.getAttribute(topicMetrics, "eligible-partitions"));
+        assertEquals(3, server.getAttribute(topicMetrics, "partitions"));
+        assertEquals(1, server.getAttribute(topicMetrics, "excluded-brokers"));
+
+        final ObjectName clientMetrics = new ObjectName("kafka.producer.oos:type=oos-partitioner-metrics,client-id=oos-metrics-test");
+        assertEquals(1L, server.getAttribute(clientMetrics, "health-computations"));
+        assertTrue((Double) server.getAttribute(clientMetrics, "health-compute-time-max") > 0);
+        assertTrue((Double) server.getAttribute(clientMetrics, "health-compute-time-p50") > 0, "Percentiles should resolve microseconds");
+
+        p.close();
+        assertFalse(server.isRegistered(topicMetrics));
+    }
+
+    @Test
+    public void testMetricsWithoutClientId() throws Exception{
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName clientMetrics = new ObjectName("kafka.producer.oos:type=oos-partitioner-metrics,*");
+        final int registered = server.queryNames(clientMetrics, null).size();
+
+        Partitioner p1 = new OutOfSyncRedirectPartitioner();
+        p1.configure(configs);
+        Partitioner p2 = new OutOfSyncRedirectPartitioner();
+        p2.configure(configs);
+        assertEquals(registered + 2, server.queryNames(clientMetrics, null).size(), "Partitioners without a client.id should not collide");
+
+        p1.close();
+        p2.close();
+        assertEquals(registered, server.queryNames(clientMetrics, null).size());
+    }
+
+    public static class CollectingListener implements HealthTransitionListener {
+        static final List<HealthTransitionEvent> EVENTS = Collections.synchronizedList(new LinkedList<>());
+
+        @Override
+        public void onHealthTransition(HealthTransitionEvent event) {
+            EVENTS.add(event);
+        }
+    }
+
+    @Test
+    public void testHealthTransitions(){
+        final Node[] nodes = new Node[]{GoodCluster.nodeById(1), GoodCluster.nodeById(2), GoodCluster.nodeById(3)};
+        // Node 3 falls out of sync on partition 1, so partition 2 that it leads gets excluded
+        final Cluster lagging = new Cluster("abc", Arrays.asList(nodes), Arrays.asList(
+            new PartitionInfo("test", 0, nodes[0], nodes, nodes),
+            new PartitionInfo("test", 1, nodes[1], nodes, new Node[]{nodes[0], nodes[1]}),
+            new PartitionInfo("test", 2, nodes[2], nodes, nodes)
+        ), Collections.emptySet(), Collections.emptySet());
+        final Cluster recovered = new Cluster("abc", Arrays.asList(nodes), GoodCluster.partitionsForTopic("test"), Collections.emptySet(), Collections.emptySet());
+
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_LISTENERS_CONFIG, CollectingListener.class.getName());
+
+        CollectingListener.EVENTS.clear();
+        Partitioner p = new OutOfSyncRedirectPartitioner();
+        p.configure(configs);
+        for(Cluster c: Arrays.asList(GoodCluster, GoodCluster, lagging, lagging, recovered)){
+            p.onNewBatch("test", c, p.partition("test", null, null, null, testBytes, c));
+        }
+        p.close();
+
+        // Only the transitions are reported, not every snapshot or batch roll
+        assertEquals(2, CollectingListener.EVENTS.size());
+
+        final HealthTransitionEvent excluded = CollectingListener.EVENTS.get(0);
+        assertEquals("test", excluded.topic());
+        assertEquals(Collections.singleton(3), excluded.excludedBrokers());
+        assertEquals(Collections.singleton(2), excluded.excludedPartitions());
+        assertTrue(excluded.readmittedBrokers().isEmpty());
+        assertEquals(2, excluded.eligiblePartitions());
+
+        final HealthTransitionEvent readmitted = CollectingListener.EVENTS.get(1);
+        assertEquals(Collections.singleton(3), readmitted.readmittedBrokers());
+        assertEquals(Collections.singleton(2), readmitted.readmittedPartitions());
+        assertTrue(readmitted.excludedBrokers().isEmpty());
+        assertEquals(3, readmitted.eligiblePartitions());
+    }
+
     @Test
     public void testMultiThread() throws InterruptedException, ExecutionException{
         final Producer<byte[], byte[]> producer = new MockProducer<>(BadCluster, true, new OutOfSyncProxyRedirectPartitioner(), new ByteArraySerializer(), new ByteArraySerializer());
@@ -0,0 +1,940 @@
+package org.apache.kafka.client.producer.oss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.producer.oos.AbstractOutOfSyncRedirectPartitionCache;
+import org.apache.kafka.clients.producer.oos.IsrBrokerHealthSource;
+import org.apache.kafka.clients.producer.oos.LaggingThresholdExclusionPolicy;
+import org.apache.kafka.clients.producer.oos.MinIsrExclusionPolicy;
+import org.apache.kafka.clients.producer.oos.NodeLatencyReporter;
+import org.apache.kafka.clients.producer.oos.OutOfSyncRedirectStickyPartitionCache;
+import org.apache.kafka.clients.producer.oos.UnderReplicatedExclusionPolicy;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.Test;
+
+public class TestOutOfSyncRedirectStickyPartitionCache {
+    private static final int PARTITIONS = 1000;
+    private static final int SNAPSHOTS = 20;
+
+    static Cluster cluster() {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+
+        final List<PartitionInfo> partitions = new ArrayList<>(PARTITIONS);
+        for(int p = 0; p < PARTITIONS; p++){
+            // Node 1 is out of sync for every 10th partition
+            final Node[] isr = p % 10 == 0 ? new Node[]{nodes[1], nodes[2]} : nodes;
+            partitions.add(new PartitionInfo("test", p, nodes[p % nodes.length], nodes, isr));
+        }
+        return new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Every thread rolls a batch at the same time against each new Cluster instance.
+     * Only one of them should compute the topic's health per Cluster instance.
+     */
+    @Test
+    public void testSingleFlightBatchRollStorm() throws InterruptedException{
+        for(int threads: new int[]{32, 64, 128, 256}){
+            final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+            cache.configure(Collections.emptyMap());
+
+            final Cluster[] snapshots = new Cluster[SNAPSHOTS];
+            for(int s = 0; s < SNAPSHOTS; s++){
+                snapshots[s] = cluster();
+            }
+
+            final CyclicBarrier barrier = new CyclicBarrier(threads);
+            final AtomicLong rolls = new AtomicLong();
+            final List<Throwable> failures = Collections.synchronizedList(new LinkedList<>());
+            final List<Thread> runningThreads = new LinkedList<>();
+            for(int t = 0; t < threads; t++){
+                Thread thread = new Thread(new Runnable(){
+                    @Override
+                    public void run() {
+                        try {
+                            for(Cluster c: snapshots){
+                                barrier.await();
+                                final int prev = cache.partition("test", c);
+                                final int next = cache.nextPartition("test", c, prev);
+                                rolls.incrementAndGet();
+                                assertTrue(next % 3 != 0, "Partition was an invalid one: "+ next);
+                            }
+                        } catch (InterruptedException | BrokenBarrierException | RuntimeException | AssertionError e) {
+                            failures.add(e);
+                        }
+                    }
+                });
+                runningThreads.add(thread);
+                thread.start();
+            }
+            for(Thread t: runningThreads){
+                t.join();
+            }
+
+            assertTrue(failures.isEmpty(), "Threads failed: " + failures);
+            final long computations = cache.getHealthComputationCount();
+            assertEquals(SNAPSHOTS, computations, String.format("Health should only be computed once per Cluster instance: Threads=`%s` BatchRolls=`%s`", 
+                threads, rolls.get()));
+            cache.close();
+        }
+    }
+
+    static Cluster manyTopicsCluster(int topics) {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+
+        final List<PartitionInfo> partitions = new ArrayList<>(topics);
+        for(int t = 0; t < topics; t++){
+            partitions.add(new PartitionInfo("test-" + t, 0, nodes[t % nodes.length], nodes, nodes));
+        }
+        return new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    @Test
+    public void testMaxTopicsEviction(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CACHE_MAX_TOPICS_CONFIG, 100);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster c = manyTopicsCluster(500);
+        for(int t = 0; t < 500; t++){
+            assertEquals(0, cache.partition("test-" + t, c));
+        }
+
+        assertTrue(cache.getCachedTopicCount() <= 100, "Cache grew past its max size: " + cache.getCachedTopicCount());
+        assertTrue(cache.getEvictedTopicCount() >= 400, "Not enough topics evicted: " + cache.getEvictedTopicCount());
+        cache.close();
+    }
+
+    @Test
+    public void testSingleTopicEviction(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CACHE_MAX_TOPICS_CONFIG, 1);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster c = manyTopicsCluster(2);
+        cache.partition("test-0", c);
+        cache.partition("test-1", c);
+        assertEquals(1, cache.getCachedTopicCount(), "The new topic should replace the old one");
+        assertEquals(1, cache.getEvictedTopicCount());
+
+        // The new topic is still cached, so using it again doesn't evict anything
+        cache.partition("test-1", c);
+        assertEquals(1, cache.getCachedTopicCount());
+        assertEquals(1, cache.getEvictedTopicCount());
+        cache.close();
+    }
+
+    @Test
+    public void testTiedAccessEviction(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CACHE_MAX_TOPICS_CONFIG, 2);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        // Topics are created within the same millisecond as the previous ones, so the newest ties with the eviction cutoff
+        final Cluster c = manyTopicsCluster(500);
+        for(int t = 0; t < 500; t++){
+            cache.partition("test-" + t, c);
+            final long evicted = cache.getEvictedTopicCount();
+            final int cached = cache.getCachedTopicCount();
+            cache.partition("test-" + t, c);
+            assertEquals(evicted, cache.getEvictedTopicCount(), "Topic was evicted as it was created: test-" + t);
+            assertEquals(cached, cache.getCachedTopicCount());
+        }
+        cache.close();
+    }
+
+    public static class TrackedHealthSource extends IsrBrokerHealthSource {
+        static volatile TrackedHealthSource LAST;
+
+        public TrackedHealthSource() {
+            LAST = this;
+        }
+    }
+
+    @Test
+    public void testReplicaStateEviction(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CACHE_MAX_TOPICS_CONFIG, 10);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SOURCE_CONFIG, TrackedHealthSource.class);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster c = manyTopicsCluster(500);
+        for(int t = 0; t < 500; t++){
+            cache.partition("test-" + t, c);
+        }
+        // The replica state of evicted topics is dropped along with them
+        final IsrBrokerHealthSource source = TrackedHealthSource.LAST;
+        assertTrue(source.getTrackedTopicCount() <= cache.getCachedTopicCount(), "Replica state kept for " + source.getTrackedTopicCount() + " topics");
+
+        // As is that of topics that have left the metadata
+        source.unhealthyNodes(manyTopicsCluster(1), Collections.singleton("test-0"));
+        assertEquals(1, source.getTrackedTopicCount());
+        cache.close();
+    }
+
+    @Test
+    public void testIdleTopicEviction() throws InterruptedException{
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CACHE_TOPIC_IDLE_MS_CONFIG, 50L);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster c = manyTopicsCluster(10);
+        for(int t = 0; t < 10; t++){
+            cache.partition("test-" + t, c);
+        }
+        assertEquals(10, cache.getCachedTopicCount());
+
+        Thread.sleep(200);
+        // Rolling a batch of the only active topic sweeps out all the idle ones
+        cache.nextPartition("test-0", c, cache.partition("test-0", c));
+
+        assertEquals(1, cache.getCachedTopicCount());
+        assertEquals(9, cache.getEvictedTopicCount());
+        cache.close();
+    }
+
+    static Cluster flapCluster(boolean lagging) {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+        // When lagging, Node 3 is out of sync on partition 0, so partition 2 that it leads gets excluded
+        return new Cluster("abc", Arrays.asList(nodes), Arrays.asList(
+            new PartitionInfo("test", 0, nodes[0], nodes, lagging ? new Node[]{nodes[0], nodes[1]} : nodes),
+            new PartitionInfo("test", 1, nodes[1], nodes, nodes),
+            new PartitionInfo("test", 2, nodes[2], nodes, nodes)
+        ), Collections.emptySet(), Collections.emptySet());
+    }
+
+    static boolean usesPartition(OutOfSyncRedirectStickyPartitionCache cache, Cluster c, int partition){
+        for(int rolls = 0; rolls < 1000; rolls++){
+            if (cache.nextPartition("test", c, cache.partition("test", c)) == partition){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testReadmissionDamping(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.READMIT_MIN_INSYNC_SNAPSHOTS_CONFIG, 3);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        assertFalse(usesPartition(cache, flapCluster(true), 2));
+        // Flapping back in sync for a single snapshot doesn't readmit it
+        assertFalse(usesPartition(cache, flapCluster(false), 2));
+        assertFalse(usesPartition(cache, flapCluster(true), 2));
+        assertFalse(usesPartition(cache, flapCluster(false), 2));
+        assertFalse(usesPartition(cache, flapCluster(false), 2));
+        // Third consecutive in sync snapshot
+        assertTrue(usesPartition(cache, flapCluster(false), 2));
+        cache.close();
+    }
+
+    public static class CountingHealthSource extends IsrBrokerHealthSource {
+        static final AtomicInteger CREATED = new AtomicInteger();
+        static final AtomicInteger EVALUATIONS = new AtomicInteger();
+        static final AtomicInteger CLOSED = new AtomicInteger();
+
+        public CountingHealthSource() {
+            CREATED.incrementAndGet();
+        }
+
+        @Override
+        public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+            EVALUATIONS.incrementAndGet();
+            return super.unhealthyNodes(cluster, topics);
+        }
+
+        @Override
+        public void close() {
+            CLOSED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Blocks, or fails, evaluations made by the background health evaluator, counting those made inline by the caller
+     */
+    public static class EvaluatorHealthSource extends IsrBrokerHealthSource {
+        static final AtomicInteger INLINE = new AtomicInteger();
+        static final AtomicBoolean FAIL = new AtomicBoolean();
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+            if (!Thread.currentThread().getName().equals("kafka-oos-health-evaluator")) {
+                INLINE.incrementAndGet();
+            } else if (FAIL.getAndSet(false)) {
+                throw new IllegalStateException("Failing evaluation");
+            } else {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.unhealthyNodes(cluster, topics);
+        }
+    }
+
+    static Cluster withNewTopic(Cluster c) {
+        final List<PartitionInfo> partitions = new ArrayList<>(c.partitionsForTopic("test"));
+        partitions.add(new PartitionInfo("new", 0, c.nodes().get(0), c.nodes().toArray(new Node[0]), c.nodes().toArray(new Node[0])));
+        return new Cluster("abc", c.nodes(), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    static OutOfSyncRedirectStickyPartitionCache asyncCache() {
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_ASYNC_CONFIG, true);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SOURCE_CONFIG, EvaluatorHealthSource.class);
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        return cache;
+    }
+
+    @Test
+    public void testAsyncNewTopicKeepsStaleHealth() throws InterruptedException{
+        final OutOfSyncRedirectStickyPartitionCache cache = asyncCache();
+        cache.partition("test", flapCluster(false));
+
+        // The background evaluation of the new metadata is held up
+        EvaluatorHealthSource.release = new CountDownLatch(1);
+        final int inline = EvaluatorHealthSource.INLINE.get();
+        final Cluster c = withNewTopic(flapCluster(true));
+        // Only the topic without any previous health is computed inline, the others keep their previous health until the evaluation completes
+        cache.partition("new", c);
+        assertEquals(inline + 1, EvaluatorHealthSource.INLINE.get());
+        assertTrue(usesPartition(cache, c, 2));
+        assertEquals(inline + 1, EvaluatorHealthSource.INLINE.get());
+
+        EvaluatorHealthSource.release.countDown();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (usesPartition(cache, c, 2)) {
+            assertTrue(System.currentTimeMillis() < deadline, "New health was never published");
+            Thread.sleep(1);
+        }
+        assertEquals(inline + 1, EvaluatorHealthSource.INLINE.get());
+        cache.close();
+    }
+
+    @Test
+    public void testAsyncEvaluationRetriedAfterFailure() throws InterruptedException{
+        final OutOfSyncRedirectStickyPartitionCache cache = asyncCache();
+        cache.partition("test", flapCluster(false));
+
+        EvaluatorHealthSource.FAIL.set(true);
+        final Cluster c = flapCluster(true);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (usesPartition(cache, c, 2)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Failed evaluation was never retried");
+            Thread.sleep(1);
+        }
+        assertFalse(EvaluatorHealthSource.FAIL.get());
+        cache.close();
+    }
+
+    @Test
+    public void testSharedHealth(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SHARED_CONFIG, true);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SOURCE_CONFIG, CountingHealthSource.class);
+
+        final List<OutOfSyncRedirectStickyPartitionCache> caches = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+            cache.configure(configs);
+            caches.add(cache);
+        }
+        assertEquals(0, CountingHealthSource.CREATED.get());
+
+        // Every producer has its own, but identical, metadata
+        for (OutOfSyncRedirectStickyPartitionCache cache : caches) {
+            assertFalse(usesPartition(cache, flapCluster(true), 2));
+        }
+        assertEquals(1, CountingHealthSource.CREATED.get());
+        assertEquals(1, CountingHealthSource.EVALUATIONS.get());
+
+        // Changed metadata is evaluated once more, by the first producer to see it
+        for (OutOfSyncRedirectStickyPartitionCache cache : caches) {
+            assertTrue(usesPartition(cache, flapCluster(false), 2));
+        }
+        assertEquals(2, CountingHealthSource.EVALUATIONS.get());
+
+        // Sticky partitions are still kept per producer
+        final Cluster c = flapCluster(false);
+        final OutOfSyncRedirectStickyPartitionCache first = caches.get(0);
+        final int sticky = first.partition("test", c);
+        for (OutOfSyncRedirectStickyPartitionCache cache : caches.subList(1, caches.size())) {
+            cache.nextPartition("test", c, cache.partition("test", c));
+        }
+        assertEquals(sticky, first.partition("test", c));
+
+        for (OutOfSyncRedirectStickyPartitionCache cache : caches.subList(1, caches.size())) {
+            cache.close();
+        }
+        assertEquals(0, CountingHealthSource.CLOSED.get());
+        first.close();
+        assertEquals(1, CountingHealthSource.CLOSED.get());
+    }
+
+    /**
+     * Counts evaluations apart from {@link CountingHealthSource}, so that the tests sharing health don't depend on each other
+     */
+    public static class ManyTopicsHealthSource extends IsrBrokerHealthSource {
+        static final AtomicInteger EVALUATIONS = new AtomicInteger();
+
+        @Override
+        public BitSet unhealthyNodes(Cluster cluster, Collection<String> topics) {
+            EVALUATIONS.incrementAndGet();
+            return super.unhealthyNodes(cluster, topics);
+        }
+    }
+
+    @Test
+    public void testSharedHealthOfManyTopics(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SHARED_CONFIG, true);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SOURCE_CONFIG, ManyTopicsHealthSource.class);
+        final OutOfSyncRedirectStickyPartitionCache first = new OutOfSyncRedirectStickyPartitionCache();
+        first.configure(configs);
+        final OutOfSyncRedirectStickyPartitionCache second = new OutOfSyncRedirectStickyPartitionCache();
+        second.configure(configs);
+
+        // Each topic is evaluated once, by the first producer, however many topics there are
+        final int topics = 1000;
+        final int evaluations = ManyTopicsHealthSource.EVALUATIONS.get();
+        final Cluster firstCluster = manyTopicsCluster(topics);
+        for (int t = 0; t < topics; t++) {
+            first.partition("test-" + t, firstCluster);
+        }
+        assertEquals(evaluations + topics, ManyTopicsHealthSource.EVALUATIONS.get());
+        final Cluster secondCluster = manyTopicsCluster(topics);
+        for (int t = 0; t < topics; t++) {
+            second.partition("test-" + t, secondCluster);
+        }
+        assertEquals(evaluations + topics, ManyTopicsHealthSource.EVALUATIONS.get());
+        first.close();
+        second.close();
+    }
+
+    static final int CASCADE_BROKERS = 4;
+    static final double CASCADE_CAPACITY = 0.32;
+
+    /**
+     * 4 Brokers leading 40 partitions, each replicated to the next Broker. Followers that are out of sync are left out of the ISR.
+     */
+    static Cluster cascadeCluster(boolean[] outOfSync) {
+        final Node[] nodes = new Node[CASCADE_BROKERS];
+        for (int n = 0; n < nodes.length; n++) {
+            nodes[n] = new Node(n, "localhost", 9091 + n);
+        }
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int p = 0; p < 40; p++) {
+            final Node leader = nodes[p % nodes.length];
+            final Node follower = nodes[(p + 1) % nodes.length];
+            partitions.add(new PartitionInfo("test", p, leader, new Node[]{leader, follower}, 
+                outOfSync[follower.id()] ? new Node[]{leader} : new Node[]{leader, follower}));
+        }
+        return new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Simulates metadata snapshots where Broker 0 is stuck out of sync, and any other Broker receiving more than 
+     * {@link #CASCADE_CAPACITY} of the topic's batches falls out of sync by the next snapshot, until it's back under it.
+     * 
+     * @return Max number of Brokers out of sync at once
+     */
+    static int simulateCascade(Map<String, Object> configs) {
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final boolean[] outOfSync = new boolean[CASCADE_BROKERS];
+        outOfSync[0] = true;
+        int maxOutOfSync = 1;
+        for (int snapshot = 0; snapshot < 10; snapshot++) {
+            final Cluster c = cascadeCluster(outOfSync);
+            final int[] batches = new int[CASCADE_BROKERS];
+            final int rolls = 50000;
+            for (int roll = 0; roll < rolls; roll++) {
+                final int partition = cache.nextPartition("test", c, cache.partition("test", c));
+                batches[c.partition(new TopicPartition("test", partition)).leader().id()]++;
+            }
+
+            int count = 1;
+            for (int n = 1; n < CASCADE_BROKERS; n++) {
+                outOfSync[n] = (double) batches[n] / rolls > CASCADE_CAPACITY;
+                count += outOfSync[n] ? 1 : 0;
+            }
+            maxOutOfSync = Math.max(maxOutOfSync, count);
+        }
+        cache.close();
+        return maxOutOfSync;
+    }
+
+    @Test
+    public void testLoadSpreadingCapPreventsCascade(){
+        final Map<String, Object> configs = new HashMap<>();
+        // Without a cap the 3 remaining Brokers each get a third of the batches, above their capacity
+        assertEquals(CASCADE_BROKERS, simulateCascade(configs));
+
+        // Capped at 1.2 times their fair share of a quarter, the excess spills back onto Broker 0
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.LOAD_MAX_SHARE_FACTOR_CONFIG, 1.2);
+        assertEquals(1, simulateCascade(configs));
+    }
+
+    /**
+     * 3 Brokers leading 6 partitions replicated to all of them, with Broker 3 out of the ISR of the given partitions, all led by Broker 1.
+     */
+    static Cluster exclusionCluster(int... lagging) {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int p = 0; p < 6; p++) {
+            partitions.add(new PartitionInfo("test", p, nodes[p % 3], nodes, nodes));
+        }
+        for (int p : lagging) {
+            partitions.set(p, new PartitionInfo("test", p, nodes[0], nodes, new Node[]{nodes[0], nodes[1]}));
+        }
+        return new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    static Set<Integer> usedPartitions(Map<String, Object> configs, Cluster c) {
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        final Set<Integer> used = new TreeSet<>();
+        for (int rolls = 0; rolls < 1000; rolls++) {
+            used.add(cache.nextPartition("test", c, cache.partition("test", c)));
+        }
+        cache.close();
+        return used;
+    }
+
+    @Test
+    public void testExclusionPolicies(){
+        final Map<String, Object> configs = new HashMap<>();
+        // By default the lagging Broker 3's own partitions are excluded
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 3, 4)), usedPartitions(configs, exclusionCluster(0)));
+
+        // Only the partition that's down to the min ISR
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.EXCLUSION_POLICY_CONFIG, MinIsrExclusionPolicy.class);
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2, 3, 4, 5)), usedPartitions(configs, exclusionCluster(0)));
+        configs.put(MinIsrExclusionPolicy.Config.MIN_ISR_CONFIG, 1);
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 2, 3, 4, 5)), usedPartitions(configs, exclusionCluster(0)));
+
+        // Only the under replicated partitions
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.EXCLUSION_POLICY_CONFIG, UnderReplicatedExclusionPolicy.class);
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2, 4, 5)), usedPartitions(configs, exclusionCluster(0, 3)));
+
+        // Broker 3 is only excluded once it lags on 2 partitions
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.EXCLUSION_POLICY_CONFIG, LaggingThresholdExclusionPolicy.class);
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 2, 3, 4, 5)), usedPartitions(configs, exclusionCluster(0)));
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 3, 4)), usedPartitions(configs, exclusionCluster(0, 3)));
+
+        // Also applies to health shared by all topics
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SCOPE_CONFIG, AbstractOutOfSyncRedirectPartitionCache.Config.HEALTH_SCOPE_CLUSTER);
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 2, 3, 4, 5)), usedPartitions(configs, exclusionCluster(0)));
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 3, 4)), usedPartitions(configs, exclusionCluster(0, 3)));
+    }
+
+    @Test
+    public void testRoundRobin() throws InterruptedException{
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.ROUND_ROBIN_CONFIG, true);
+        final Cluster c = exclusionCluster(0);
+        final byte[] value = new byte[100];
+
+        OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        final int[] counts = new int[6];
+        for (int r = 0; r < 400; r++) {
+            final int part = cache.partition("test", null, value, c);
+            counts[part]++;
+            // Batch rolls don't move it
+            cache.onNewBatch("test", c, part);
+        }
+        // Cycles evenly through the partitions not led by the lagging Broker 3
+        assertEquals("[100, 100, 0, 100, 100, 0]", Arrays.toString(counts));
+        cache.close();
+
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.ROUND_ROBIN_RECORDS_CONFIG, 5);
+        cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        int prev = cache.partition("test", null, value, c);
+        int run = 1;
+        int runs = 0;
+        for (int r = 0; r < 400; r++) {
+            final int part = cache.partition("test", null, value, c);
+            if (part == prev) {
+                run++;
+            } else {
+                // Only the first run can be cut short, as the counter starts at a random position
+                assertTrue(run == 5 || runs == 0, "Run of " + run);
+                prev = part;
+                run = 1;
+                runs++;
+            }
+        }
+        assertTrue(runs >= 79, "Runs " + runs);
+        cache.close();
+
+        // Threads share the topic's position without losing the balance
+        configs.remove(AbstractOutOfSyncRedirectPartitionCache.Config.ROUND_ROBIN_RECORDS_CONFIG);
+        final OutOfSyncRedirectStickyPartitionCache shared = new OutOfSyncRedirectStickyPartitionCache();
+        shared.configure(configs);
+        final AtomicLong[] sharedCounts = new AtomicLong[6];
+        for (int p = 0; p < sharedCounts.length; p++) {
+            sharedCounts[p] = new AtomicLong();
+        }
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int r = 0; r < 100000; r++) {
+                    sharedCounts[shared.partition("test", null, value, c)].incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int p : new int[]{0, 1, 3, 4}) {
+            assertTrue(Math.abs(sharedCounts[p].get() - 200000) < 2000, p + "=" + sharedCounts[p]);
+        }
+        assertEquals(0, sharedCounts[2].get() + sharedCounts[5].get());
+        shared.close();
+    }
+
+    /**
+     * Applies random changes to the leaders and ISRs of a few partitions per snapshot, and occasionally of most of them or the partition count, 
+     * checking the incrementally patched health source and lagging threshold policy against new ones evaluating each snapshot from scratch.
+     */
+    @Test
+    public void testIncrementalHealth(){
+        final Random random = new Random(42);
+        final Node[] nodes = new Node[5];
+        for (int n = 0; n < nodes.length; n++) {
+            nodes[n] = new Node(n, "localhost", 9091 + n);
+        }
+        final IsrBrokerHealthSource incremental = new IsrBrokerHealthSource();
+        final LaggingThresholdExclusionPolicy policy = new LaggingThresholdExclusionPolicy();
+        final BitSet unhealthy = new BitSet();
+        unhealthy.set(0, nodes.length);
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int snapshot = 0; snapshot < 200; snapshot++) {
+            final int numPartitions = snapshot % 50 == 49 ? 100 + random.nextInt(20) : Math.max(partitions.size(), 100);
+            final int changes = snapshot % 20 == 19 ? numPartitions : random.nextInt(4);
+            while (partitions.size() > numPartitions) {
+                partitions.remove(partitions.size() - 1);
+            }
+            for (int i = 0; i < changes || partitions.size() < numPartitions; i++) {
+                final int p = partitions.size() < numPartitions ? partitions.size() : random.nextInt(numPartitions);
+                final Node[] replicas = new Node[]{nodes[p % 5], nodes[(p + 1) % 5], nodes[(p + 2) % 5]};
+                final Node leader = random.nextInt(10) == 0 ? null : replicas[random.nextInt(3)];
+                final Node[] isr = random.nextBoolean() ? replicas : new Node[]{replicas[0], replicas[random.nextInt(2) + 1]};
+                final PartitionInfo info = new PartitionInfo("test", p, leader, replicas, isr);
+                if (p == partitions.size()) {
+                    partitions.add(info);
+                } else {
+                    partitions.set(p, info);
+                }
+            }
+            final Cluster c = new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+
+            final BitSet expected = new IsrBrokerHealthSource().unhealthyNodes(c, Collections.singleton("test"));
+            assertEquals(expected, incremental.unhealthyNodes(c, Collections.singleton("test")), "Snapshot " + snapshot);
+            assertEquals(new LaggingThresholdExclusionPolicy().excludedNodes(c, Collections.singleton("test"), unhealthy), 
+                policy.excludedNodes(c, Collections.singleton("test"), unhealthy), "Snapshot " + snapshot);
+        }
+        assertTrue(incremental.unhealthyNodes(Cluster.empty(), Collections.singleton("test")).isEmpty());
+    }
+
+    @Test
+    public void testUnchangedHealthReused(){
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(new HashMap<>());
+
+        // New Cluster instances with identical partitions reuse the previous health
+        for (int snapshot = 0; snapshot < SNAPSHOTS; snapshot++) {
+            final Cluster c = exclusionCluster(0);
+            cache.nextPartition("test", c, cache.partition("test", c));
+        }
+        assertEquals(SNAPSHOTS, cache.getHealthComputationCount());
+        assertEquals(SNAPSHOTS - 1, cache.getHealthReuseCount());
+
+        assertFalse(usesPartition(cache, exclusionCluster(0), 2));
+        assertEquals(SNAPSHOTS, cache.getHealthReuseCount());
+
+        // A partition's ISR changing is recomputed, readmitting and excluding the lagging Broker
+        assertTrue(usesPartition(cache, exclusionCluster(), 2));
+        assertFalse(usesPartition(cache, exclusionCluster(0, 3), 2));
+        assertEquals(SNAPSHOTS, cache.getHealthReuseCount());
+        cache.close();
+    }
+
+    @Test
+    public void testKeyedConsistentHashFallback(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.KEYED_CONFIG, true);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster healthy = flapCluster(false);
+        final Cluster lagging = flapCluster(true);
+        final int[] remapped = new int[3];
+        for (int i = 0; i < 1000; i++) {
+            final byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+            final int home = Utils.toPositive(Utils.murmur2(key)) % 3;
+            assertEquals(home, cache.partition("test", key, healthy));
+
+            final int redirected = cache.partition("test", key, lagging);
+            if (home == 2) {
+                assertNotEquals(2, redirected);
+                remapped[redirected]++;
+                // Remapping is stable for the same key
+                assertEquals(redirected, cache.partition("test", key, lagging));
+            } else {
+                // Keys of eligible partitions never move
+                assertEquals(home, redirected);
+            }
+        }
+        // Keys of the excluded partition are spread over the rest, not piled onto one
+        assertTrue(remapped[0] > 0);
+        assertTrue(remapped[1] > 0);
+
+        // Once readmitted keys go back home
+        final byte[] key = "key-0".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Utils.toPositive(Utils.murmur2(key)) % 3, cache.partition("test", key, flapCluster(false)));
+        cache.close();
+    }
+
+    @Test
+    public void testLatencyWeighted(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(CommonClientConfigs.CLIENT_ID_CONFIG, "latency-test");
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.LATENCY_WEIGHTED_CONFIG, true);
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.LATENCY_REFRESH_MS_CONFIG, 0L);
+
+        final NodeLatencyReporter reporter = new NodeLatencyReporter();
+        reporter.configure(configs);
+        final Metrics metrics = new Metrics(new MetricConfig(), Collections.singletonList(reporter), Time.SYSTEM);
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        // Node 3, the leader of partition 2, is 10 times slower than the others
+        final long[] latencies = new long[]{10, 10, 100};
+        for (int node = 1; node <= 3; node++) {
+            final Map<String, String> tags = new HashMap<>();
+            tags.put("client-id", "latency-test");
+            tags.put("node-id", "node-" + node);
+            final Sensor sensor = metrics.sensor("node-" + node + ".latency");
+            sensor.add(metrics.metricName("request-latency-avg", "producer-node-metrics", tags), new Avg());
+            sensor.record(latencies[node - 1]);
+        }
+
+        final Cluster c = flapCluster(false);
+        final int[] picks = new int[3];
+        int part = cache.partition("test", c);
+        for (int rolls = 0; rolls < 3000; rolls++) {
+            part = cache.nextPartition("test", c, part);
+            picks[part]++;
+        }
+        assertTrue(picks[2] > 0, "Slow Broker is never starved");
+        assertTrue(picks[2] * 4 < picks[0], "Slow Broker gets a fraction of the traffic: " + Arrays.toString(picks));
+        assertTrue(picks[2] * 4 < picks[1], "Slow Broker gets a fraction of the traffic: " + Arrays.toString(picks));
+
+        cache.close();
+        metrics.close();
+    }
+
+    @Test
+    public void testLatencyWeightedRequiresClientId(){
+        // Older producers, such as 2.7, only pass the generated client.id to metric reporters, not to the partitioner
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.LATENCY_WEIGHTED_CONFIG, true);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        assertThrows(ConfigException.class, () -> cache.configure(configs));
+    }
+
+    @Test
+    public void testStickyBatchBytes(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.STICKY_BATCH_BYTES_CONFIG, 100L);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        final Cluster c = flapCluster(true);
+        final byte[] value = new byte[10];
+        for (int batch = 0; batch < 50; batch++) {
+            final int part = cache.partition("test", null, value, c);
+            // New batches no longer switch partitions
+            cache.onNewBatch("test", c, part);
+            for (int i = 1; i < 10; i++) {
+                assertEquals(part, cache.partition("test", null, value, c));
+            }
+            final int next = cache.partition("test", null, value, c);
+            assertNotEquals(part, next, "Switches once the budget is used up");
+            assertNotEquals(2, next, "Still respects excluded partitions");
+            // Give back the record used to peek at the next partition
+            cache.partition("test", null, new byte[90], c);
+        }
+        cache.close();
+    }
+
+    static Cluster rackCluster(boolean localLagging) {
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091, "az-a"),
+            new Node(2, "localhost", 9092, "az-b"),
+            new Node(3, "localhost", 9093, "az-c")
+        };
+        // Each Node leads 2 partitions, when lagging Node 1 is out of sync on partition 1
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int p = 0; p < 6; p++) {
+            final Node[] isr = localLagging && p == 1 ? new Node[]{nodes[1], nodes[2]} : nodes;
+            partitions.add(new PartitionInfo("test", p, nodes[p % 3], nodes, isr));
+        }
+        return new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+    }
+
+    static int[] rackPicks(Map<String, Object> configs, Cluster c) {
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+        final int[] picks = new int[6];
+        int part = cache.partition("test", c);
+        for (int rolls = 0; rolls < 600; rolls++) {
+            part = cache.nextPartition("test", c, part);
+            picks[part]++;
+        }
+        cache.close();
+        return picks;
+    }
+
+    @Test
+    public void testRackAware(){
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(CommonClientConfigs.CLIENT_RACK_CONFIG, "az-a");
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.RACK_MIN_LOCAL_PARTITIONS_CONFIG, 2);
+
+        // Only partitions 0 and 3 are led from the same rack
+        int[] picks = rackPicks(configs, rackCluster(false));
+        assertTrue(picks[0] > 0 && picks[3] > 0, Arrays.toString(picks));
+        assertEquals(600, picks[0] + picks[3], Arrays.toString(picks));
+
+        // The local Node being out of sync excludes both of its partitions, so it spills to the other racks
+        picks = rackPicks(configs, rackCluster(true));
+        assertEquals(0, picks[0] + picks[3], Arrays.toString(picks));
+        assertTrue(picks[1] > 0 && picks[2] > 0 && picks[4] > 0 && picks[5] > 0, Arrays.toString(picks));
+
+        // Explicit partitioner rack takes precedence, and too small a local pool spills
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.CLIENT_RACK_CONFIG, "az-b");
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.RACK_MIN_LOCAL_PARTITIONS_CONFIG, 3);
+        picks = rackPicks(configs, rackCluster(false));
+        assertTrue(picks[0] > 0 && picks[2] > 0, Arrays.toString(picks));
+    }
+
+    @Test
+    public void testBrokerSticky() throws InterruptedException{
+        final Map<String, Object> configs = new HashMap<>();
+        configs.put(AbstractOutOfSyncRedirectPartitionCache.Config.BROKER_STICKY_MS_CONFIG, 100L);
+
+        final OutOfSyncRedirectStickyPartitionCache cache = new OutOfSyncRedirectStickyPartitionCache();
+        cache.configure(configs);
+
+        // 3 topics, each with 6 partitions, partition P led by Node P % 3 + 1
+        final Node[] nodes = new Node[]{
+            new Node(1, "localhost", 9091),
+            new Node(2, "localhost", 9092),
+            new Node(3, "localhost", 9093)
+        };
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            for (int p = 0; p < 6; p++) {
+                partitions.add(new PartitionInfo("test-" + t, p, nodes[p % 3], nodes, nodes));
+            }
+        }
+        final Cluster c = new Cluster("abc", Arrays.asList(nodes), partitions, Collections.emptySet(), Collections.emptySet());
+
+        final int[] targets = new int[3];
+        for (int window = 0; window < 10; window++) {
+            int leader = -1;
+            for (int rolls = 0; rolls < 10; rolls++) {
+                for (int t = 0; t < 3; t++) {
+                    final String topic = "test-" + t;
+                    final int part = cache.nextPartition(topic, c, cache.partition(topic, c));
+                    // Every topic sticks to a partition on the same Broker within the window
+                    if (leader < 0) {
+                        leader = part % 3;
+                    }
+                    assertEquals(leader, part % 3);
+                }
+            }
+            targets[leader]++;
+            Thread.sleep(110);
+        }
+        // New windows move to other Brokers
+        assertTrue((targets[0] > 0 ? 1 : 0) + (targets[1] > 0 ? 1 : 0) + (targets[2] > 0 ? 1 : 0) > 1, Arrays.toString(targets));
+        cache.close();
+    }
+}